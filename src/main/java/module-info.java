@@ -4,6 +4,7 @@ module org.dpsoftware {
     requires javafx.fxml;
     requires static lombok;
     requires java.desktop;
+    requires jdk.management;
     requires com.sun.jna.platform;
     requires com.sun.jna;
     requires org.freedesktop.gstreamer;
@@ -16,9 +17,11 @@ module org.dpsoftware {
     opens org.dpsoftware to javafx.fxml;
     opens org.dpsoftware.gui to javafx.fxml;
     opens org.dpsoftware.grabber to javafx.fxml;
+    opens org.dpsoftware.output to javafx.fxml;
     exports org.dpsoftware;
     exports org.dpsoftware.gui;
     exports org.dpsoftware.grabber;
     exports org.dpsoftware.config;
+    exports org.dpsoftware.output;
 
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+/*
+  CaptureStateMachine.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Start and stop screen capturing without blocking the caller.
+ * Capture resumes as soon as start is requested, the device is notified afterwards.
+ * Capture stops once the device has acknowledged the new state or the acknowledgement timed out,
+ * a start requested while stopping is run as soon as the stop completes.
+ */
+public class CaptureStateMachine {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureStateMachine.class);
+
+    public enum State {
+        STOPPED,
+        STARTING,
+        RUNNING,
+        STOPPING
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.STOPPED);
+    // Start requested while stopping
+    private volatile boolean pendingStart;
+    private final MQTTManager mqttManager;
+    // Create and release the capture tasks and resources, run in order on the housekeeping thread
+    private final Runnable startCapture;
+    private final Runnable stopCapture;
+
+    /**
+     * Constructor
+     * @param mqttManager class for mqtt management, null when MQTT is disabled
+     * @param startCapture task creating the capture tasks and resources
+     * @param stopCapture task releasing the capture tasks and resources
+     */
+    public CaptureStateMachine(MQTTManager mqttManager, Runnable startCapture, Runnable stopCapture) {
+
+        this.mqttManager = mqttManager;
+        this.startCapture = startCapture;
+        this.stopCapture = stopCapture;
+
+    }
+
+    /**
+     * Current state
+     * @return state
+     */
+    public State getState() {
+
+        return state.get();
+
+    }
+
+    /**
+     * Check if capture is running or is going to run
+     * @return true if starting, running or if a start is pending
+     */
+    public boolean isStarted() {
+
+        State current = state.get();
+        return current == State.STARTING || current == State.RUNNING || (current == State.STOPPING && pendingStart);
+
+    }
+
+    /**
+     * Start capturing
+     * @return future completed when the device has been notified
+     */
+    public CompletableFuture<Void> start() {
+
+        if (transition(State.STOPPED, State.STARTING)) {
+            FireflyLuciferin.RUNNING = true;
+            FireflyLuciferin.executorManager.getHousekeepingExecutor().execute(startCapture);
+            String stateMessage = FireflyLuciferin.config.isMqttEnable() && FireflyLuciferin.config.isMqttStream()
+                    ? Constants.STATE_ON_GLOWWORM : Constants.STATE_ON_GLOWWORMWIFI;
+            return notifyDevice(stateMessage).thenRunAsync(() -> transition(State.STARTING, State.RUNNING),
+                    FireflyLuciferin.executorManager.getHousekeepingExecutor());
+        }
+        if (state.get() == State.STOPPING) {
+            pendingStart = true;
+            if (state.get() != State.STOPPING) {
+                // Stop completed before the flag was set and didn't see it, start again, only one start wins the transition
+                pendingStart = false;
+                return start();
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+
+    }
+
+    /**
+     * Stop capturing
+     * @return future completed when capture is stopped
+     */
+    public CompletableFuture<Void> stop() {
+
+        pendingStart = false;
+        if (transition(State.RUNNING, State.STOPPING) || transition(State.STARTING, State.STOPPING)) {
+            return notifyDevice(Constants.STATE_ON_SOLID).thenRunAsync(() -> {
+                FireflyLuciferin.RUNNING = false;
+                stopCapture.run();
+                FireflyLuciferin.FPS_PRODUCER_COUNTER = 0;
+                FireflyLuciferin.FPS_CONSUMER_COUNTER = 0;
+                transition(State.STOPPING, State.STOPPED);
+                if (pendingStart) {
+                    pendingStart = false;
+                    start();
+                }
+            }, FireflyLuciferin.executorManager.getHousekeepingExecutor());
+        }
+        return CompletableFuture.completedFuture(null);
+
+    }
+
+    /**
+     * Move from a state to another
+     * @param from expected state
+     * @param to new state
+     * @return true if the transition happened
+     */
+    boolean transition(State from, State to) {
+
+        if (state.compareAndSet(from, to)) {
+            logger.debug(Constants.CAPTURE_STATE, from, to);
+            return true;
+        }
+        return false;
+
+    }
+
+    /**
+     * Publish the new state to the device
+     * @param stateMessage state message
+     * @return future completed when the message is acknowledged or timed out
+     */
+    CompletableFuture<Void> notifyDevice(String stateMessage) {
+
+        if (mqttManager == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return mqttManager.publishToTopicAsync(stateMessage);
+
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+  ConfigWatcher.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware;
+
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.config.RuntimeConfig;
+import org.dpsoftware.grabber.CaptureContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Watch the configuration file in the Luciferin documents folder and publish a new runtime snapshot when it changes.
+ * Settings read on the hot paths are swapped while capturing, producers reopen their capture contexts on their next frame.
+ * Settings bound to threads, ports and connections need a restart, they keep the value in use until then.
+ * The folder is polled on the housekeeping thread, no thread is dedicated to the watcher.
+ * Files written by Luciferin itself, like the cached serial port or the calibration results, are not reloaded.
+ */
+public class ConfigWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    // Content of the configuration file last written by Luciferin itself
+    private static volatile byte[] ownContent;
+
+    private final WatchService watchService;
+
+    /**
+     * Constructor
+     * @throws IOException can't watch the configuration folder
+     */
+    public ConfigWatcher() throws IOException {
+
+        watchService = FileSystems.getDefault().newWatchService();
+        new StorageManager().getConfigFolder().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+    }
+
+    /**
+     * Reload the configuration if the file changed since the last poll, called periodically
+     */
+    public void poll() {
+
+        WatchKey watchKey = watchService.poll();
+        if (watchKey == null) {
+            return;
+        }
+        boolean changed = false;
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.context() != null && Constants.CONFIG_FILENAME.equals(event.context().toString())) {
+                changed = true;
+            }
+        }
+        watchKey.reset();
+        if (changed) {
+            reload();
+        }
+
+    }
+
+    /**
+     * Read the configuration file and publish it
+     */
+    void reload() {
+
+        byte[] content = readContent();
+        if (content != null && Arrays.equals(content, ownContent)) {
+            // Written by Luciferin, the configuration in use already has these values
+            return;
+        }
+        Configuration current = FireflyLuciferin.config;
+        Configuration reloaded = new StorageManager().readConfig();
+        if (reloaded == null || reloaded.getLedMatrixInUse(reloaded.getDefaultLedMatrix()) == null) {
+            // Partially written, the next event reloads it
+            return;
+        }
+        if (requiresRestart(current, reloaded)) {
+            logger.info(Constants.CONFIG_RESTART_REQUIRED);
+            keepRestartSettings(current, reloaded);
+        }
+        FireflyLuciferin.config = reloaded;
+        // A matrix chosen from the tray or by the letterbox detector is kept unless the default matrix changed
+        if (!Objects.equals(current.getDefaultLedMatrix(), reloaded.getDefaultLedMatrix())) {
+            FireflyLuciferin.ledMatrixInUse = reloaded.getDefaultLedMatrix();
+        }
+        FireflyLuciferin.runtimeConfig.set(RuntimeConfig.compile(reloaded));
+        // Plans of the previous snapshot are not used anymore
+        CaptureContext.clearPlanCache();
+        logger.info(Constants.CONFIG_RELOADED);
+
+    }
+
+    /**
+     * Remember the content of the configuration file just written by Luciferin, it's not reloaded
+     */
+    public static void markOwnWrite() {
+
+        ownContent = readContent();
+
+    }
+
+    /**
+     * Content of the configuration file
+     * @return file content, null if it can't be read
+     */
+    static byte[] readContent() {
+
+        try {
+            return Files.readAllBytes(new StorageManager().getConfigFolder().resolve(Constants.CONFIG_FILENAME));
+        } catch (IOException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Check if two configurations differ in settings that can't be changed while running
+     * @param current configuration in use
+     * @param reloaded new configuration
+     * @return true if a restart is needed to apply the new configuration
+     */
+    public static boolean requiresRestart(Configuration current, Configuration reloaded) {
+
+        return current.getNumberOfCPUThreads() != reloaded.getNumberOfCPUThreads()
+                || !Objects.equals(current.getCaptureMethod(), reloaded.getCaptureMethod())
+                || current.isCooperativeCapture() != reloaded.isCooperativeCapture()
+                || current.isGstreamerEdgeCrop() != reloaded.isGstreamerEdgeCrop()
+                || !Objects.equals(current.getCaptureWindow(), reloaded.getCaptureWindow())
+                || current.isAdaptiveCaptureRate() != reloaded.isAdaptiveCaptureRate()
+                || current.isAutoDetectLetterbox() != reloaded.isAutoDetectLetterbox()
+                || current.isAutoCalibrate() != reloaded.isAutoCalibrate()
+                // The governor is created on capture start, a new budget is applied on its next step
+                || (current.getCpuBudget() > 0) != (reloaded.getCpuBudget() > 0)
+                || !Objects.equals(current.getSerialPort(), reloaded.getSerialPort())
+                || current.getDataRate() != reloaded.getDataRate()
+                || current.getTimeout() != reloaded.getTimeout()
+                || !Objects.equals(current.getMqttServer(), reloaded.getMqttServer())
+                || !Objects.equals(current.getMqttTopic(), reloaded.getMqttTopic())
+                || !Objects.equals(current.getMqttUsername(), reloaded.getMqttUsername())
+                || !Objects.equals(current.getMqttPwd(), reloaded.getMqttPwd())
+                || current.isMqttEnable() != reloaded.isMqttEnable()
+                || current.isMqttStream() != reloaded.isMqttStream()
+                || getLedNumber(current) != getLedNumber(reloaded);
+
+    }
+
+    /**
+     * Carry the settings that can't be changed while running over to the new configuration
+     * @param current configuration in use
+     * @param reloaded new configuration
+     */
+    static void keepRestartSettings(Configuration current, Configuration reloaded) {
+
+        reloaded.setNumberOfCPUThreads(current.getNumberOfCPUThreads());
+        reloaded.setCaptureMethod(current.getCaptureMethod());
+        reloaded.setCooperativeCapture(current.isCooperativeCapture());
+        reloaded.setGstreamerEdgeCrop(current.isGstreamerEdgeCrop());
+        reloaded.setCaptureWindow(current.getCaptureWindow());
+        reloaded.setAdaptiveCaptureRate(current.isAdaptiveCaptureRate());
+        reloaded.setAutoDetectLetterbox(current.isAutoDetectLetterbox());
+        reloaded.setAutoCalibrate(current.isAutoCalibrate());
+        if ((current.getCpuBudget() > 0) != (reloaded.getCpuBudget() > 0)) {
+            reloaded.setCpuBudget(current.getCpuBudget());
+        }
+        reloaded.setSerialPort(current.getSerialPort());
+        reloaded.setDataRate(current.getDataRate());
+        reloaded.setTimeout(current.getTimeout());
+        reloaded.setMqttServer(current.getMqttServer());
+        reloaded.setMqttTopic(current.getMqttTopic());
+        reloaded.setMqttUsername(current.getMqttUsername());
+        reloaded.setMqttPwd(current.getMqttPwd());
+        reloaded.setMqttEnable(current.isMqttEnable());
+        reloaded.setMqttStream(current.isMqttStream());
+        if (getLedNumber(current) != getLedNumber(reloaded)) {
+            reloaded.setLedMatrix(current.getLedMatrix());
+        }
+
+    }
+
+    /**
+     * Number of LEDs of the default matrix
+     * @param config configuration
+     * @return number of LEDs
+     */
+    static int getLedNumber(Configuration config) {
+
+        return config.getLedMatrixInUse(config.getDefaultLedMatrix()).size();
+
+    }
+
+}
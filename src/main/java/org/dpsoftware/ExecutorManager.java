@@ -0,0 +1,110 @@
+/*
+  ExecutorManager.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware;
+
+import lombok.Getter;
+import org.dpsoftware.config.Constants;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owner of every thread used by Firefly Luciferin.
+ * CPU bound capture and sampling run on a small fixed pool, blocking output has its own dedicated thread
+ * so a slow serial port or MQTT broker never steals a capture thread, timers share a single housekeeping thread.
+ * Threads are named after their role and the thread count never grows at runtime.
+ */
+@Getter
+public class ExecutorManager {
+
+    // Producers and pipeline watchdog, CPU bound
+    private final ScheduledThreadPoolExecutor captureExecutor;
+    // Consumer loop writing to the serial port or publishing to MQTT, blocking I/O, replaced by the watchdog
+    private volatile ExecutorService outputExecutor;
+    // Serial writer, blocks on the serial port so the consumer never does, replaced on reconnection
+    private volatile ExecutorService serialExecutor;
+    // FPS counter, MQTT reconnection and other periodic tasks
+    private final ScheduledExecutorService housekeepingExecutor;
+    // Capture calibration, it runs for seconds so it never holds the housekeeping thread
+    private final ExecutorService calibrationExecutor;
+
+    /**
+     * Constructor
+     * @param captureThreads number of threads used by the producers
+     */
+    public ExecutorManager(int captureThreads) {
+
+        captureExecutor = new ScheduledThreadPoolExecutor(captureThreads, namedThreadFactory(Constants.THREAD_CAPTURE));
+        outputExecutor = Executors.newSingleThreadExecutor(namedThreadFactory(Constants.THREAD_OUTPUT));
+        serialExecutor = Executors.newSingleThreadExecutor(namedThreadFactory(Constants.THREAD_SERIAL));
+        housekeepingExecutor = Executors.newSingleThreadScheduledExecutor(namedThreadFactory(Constants.THREAD_HOUSEKEEPING));
+        calibrationExecutor = Executors.newSingleThreadExecutor(namedThreadFactory(Constants.THREAD_CALIBRATION));
+
+    }
+
+    /**
+     * Replace the output thread, used when the thread is blocked in a write that can't be interrupted
+     */
+    public synchronized void restartOutputExecutor() {
+
+        outputExecutor.shutdownNow();
+        outputExecutor = Executors.newSingleThreadExecutor(namedThreadFactory(Constants.THREAD_OUTPUT));
+
+    }
+
+    /**
+     * Replace the serial thread, used when the serial port is gone or blocked
+     */
+    public synchronized void restartSerialExecutor() {
+
+        serialExecutor.shutdownNow();
+        serialExecutor = Executors.newSingleThreadExecutor(namedThreadFactory(Constants.THREAD_SERIAL));
+
+    }
+
+    /**
+     * Stop every thread, running tasks are interrupted
+     */
+    public void shutdown() {
+
+        captureExecutor.shutdownNow();
+        outputExecutor.shutdownNow();
+        serialExecutor.shutdownNow();
+        housekeepingExecutor.shutdownNow();
+        calibrationExecutor.shutdownNow();
+
+    }
+
+    /**
+     * Thread factory naming every thread after its role
+     * @param role thread name prefix
+     * @return thread factory
+     */
+    public static ThreadFactory namedThreadFactory(String role) {
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> new Thread(runnable, role + "-" + threadNumber.incrementAndGet());
+
+    }
+
+}
@@ -19,20 +19,34 @@
 package org.dpsoftware;
 
 import com.sun.jna.Platform;
+import com.sun.jna.platform.unix.X11;
 import gnu.io.CommPortIdentifier;
-import gnu.io.PortInUseException;
-import gnu.io.SerialPort;
-import gnu.io.UnsupportedCommOperationException;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.stage.Stage;
 import lombok.Getter;
+import lombok.SneakyThrows;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.config.RuntimeConfig;
+import org.dpsoftware.grabber.AdaptiveCaptureRate;
+import org.dpsoftware.grabber.CaptureCalibration;
+import org.dpsoftware.grabber.CaptureContext;
+import org.dpsoftware.grabber.CpuGovernor;
+import org.dpsoftware.grabber.FrameAssembler;
 import org.dpsoftware.grabber.GStreamerGrabber;
 import org.dpsoftware.grabber.ImageProcessor;
+import org.dpsoftware.grabber.LetterboxDetector;
+import org.dpsoftware.grabber.X11WindowFinder;
 import org.dpsoftware.gui.GUIManager;
+import org.dpsoftware.output.FrameEncoder;
+import org.dpsoftware.output.NrSerialTransport;
+import org.dpsoftware.output.OutputPermutation;
+import org.dpsoftware.output.PtyTransport;
+import org.dpsoftware.output.SerialPortLocator;
+import org.dpsoftware.output.SerialTransport;
+import org.dpsoftware.output.SerialWriter;
 import org.freedesktop.gstreamer.Bin;
 import org.freedesktop.gstreamer.Gst;
 import org.freedesktop.gstreamer.Pipeline;
@@ -43,9 +57,12 @@ import javax.swing.*;
 import java.awt.*;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 
 /**
@@ -61,18 +78,36 @@ public class FireflyLuciferin extends Application {
     // high cpu cores equals to higher framerate but big CPU usage
     // 4 Threads are enough for 24FPS on an Intel i7 5930K@4.2GHz
     // 3 thread is enough for 30FPS with GPU Hardware Acceleration and uses nearly no CPU
-    private int threadPoolNumber;
     private int executorNumber;
+    // Keeps the process CPU usage under the configured budget, null if no budget is configured
+    CpuGovernor cpuGovernor;
     // Calculate Screen Capture Framerate and how fast your microcontroller can consume it
     public static float FPS_CONSUMER_COUNTER;
     public static float FPS_PRODUCER_COUNTER;
     public static float FPS_CONSUMER;
     public static float FPS_PRODUCER;
     // Serial output stream
-    private SerialPort serial;
+    private SerialTransport serialTransport;
     private OutputStream output;
-    // LED strip, monitor and microcontroller config
-    public static Configuration config;
+    // Writes the newest frame to the serial port on its own thread, null when streaming to MQTT
+    public static volatile SerialWriter serialWriter;
+    // Name and USB id of the serial port in use, used to find it again after it has been unplugged
+    private String serialPortName;
+    private String serialUsbId;
+    // Serial frame encoder and the snapshot it has been created for, encodes on the consumer thread only
+    public static volatile FrameEncoder frameEncoder;
+    private RuntimeConfig frameEncoderConfig;
+    // Polling for the unplugged serial port, null while connected
+    private ScheduledFuture<?> serialReconnect;
+    // Enumerating the ports is slow, every scan not finding the port doubles the delay before the next one
+    private long serialRescanDelay;
+    private long nextSerialRescan;
+    // LED strip, monitor and microcontroller config, replaced by the configuration watcher while producers read it
+    public static volatile Configuration config;
+    // Snapshot of the settings read on the hot paths, swapped when the configuration file changes
+    public static final AtomicReference<RuntimeConfig> runtimeConfig = new AtomicReference<>();
+    // LED matrix in use, every matrix is precompiled and producers pick the one in use on their next frame
+    public static volatile String ledMatrixInUse;
     // Start and Stop threads
     public static boolean RUNNING = false;
     // This queue orders elements FIFO. Producer offers some data, consumer throws data to the Serial port
@@ -83,6 +118,30 @@ public class FireflyLuciferin extends Application {
     private final int ledNumber;
     // GStreamer Rendering pipeline
     public static Pipeline pipe;
+    // Hidden frame hosting the full screen grabber, created once and reused when the pipeline is rebuilt
+    static JFrame grabberFrame;
+    // Owner of every thread, created on start
+    public static ExecutorManager executorManager;
+    // Stall detector for producers and output
+    public static Watchdog watchdog;
+    volatile Watchdog.Heartbeat outputHeartbeat;
+    volatile Watchdog.Heartbeat serialHeartbeat;
+    // Start and stop of the capture, called by the tray menu and by MQTT
+    public static CaptureStateMachine captureStateMachine;
+    // Capture calibration, completed at once when calibration is disabled
+    CompletableFuture<Void> calibration = CompletableFuture.completedFuture(null);
+    // Tasks, contexts and heartbeats of the running capture, released on stop
+    final List<Future<?>> captureFutures = new CopyOnWriteArrayList<>();
+    final List<CaptureContext> captureContexts = new CopyOnWriteArrayList<>();
+    final List<Watchdog.Heartbeat> captureHeartbeats = new CopyOnWriteArrayList<>();
+    // Black bars detector, null when the LED matrix is selected by hand
+    public static LetterboxDetector letterboxDetector;
+    // Grabbers of the edge crop pipeline branches, empty when capturing the entire screen
+    public static final List<GStreamerGrabber> edgeGrabbers = new ArrayList<>();
+    // Display resolution the edge crop pipeline is cropping
+    static Dimension edgeDisplaySize;
+    // LED matrix the edge crop pipeline is cropping
+    static String edgeLedMatrix;
     public static GUIManager guiManager;
     public static boolean communicationError = false;
     // MQTT
@@ -95,12 +154,15 @@ public class FireflyLuciferin extends Application {
     public FireflyLuciferin() {
 
         loadConfigurationYaml();
+        ledMatrixInUse = config.getDefaultLedMatrix();
+        runtimeConfig.set(RuntimeConfig.compile(config));
+        if (config.isAutoDetectLetterbox()) {
+            letterboxDetector = new LetterboxDetector();
+        }
         String ledMatrixInUse = config.getDefaultLedMatrix();
         sharedQueue = new LinkedBlockingQueue<>(config.getLedMatrixInUse(ledMatrixInUse).size() * 30);
         imageProcessor = new ImageProcessor();
         ledNumber = config.getLedMatrixInUse(ledMatrixInUse).size();
-        initSerial();
-        initOutputStream();
         initThreadPool();
 
     }
@@ -125,39 +187,261 @@ public class FireflyLuciferin extends Application {
         if (!Platform.isLinux()) {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         }
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(threadPoolNumber);
-
-        // Desktop Duplication API producers
-        if ((config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.DDUPL.name())) || (config.getCaptureMethod().equals(Configuration.LinuxCaptureMethod.XIMAGESRC.name()))) {
-            launchDDUPLGrabber(scheduledExecutorService);
-        } else { // Standard Producers
-            launchStandardGrabber(scheduledExecutorService);
+        executorManager = new ExecutorManager(executorNumber);
+        watchdog = new Watchdog();
+        if (runtimeConfig.get().isGStreamerCapture()) {
+            imageProcessor.initGStreamer();
         }
 
         // Run a very fast consumer
+        // Stalled writers may return later, their replacements get their own heartbeat
+        outputHeartbeat = watchdog.register(Constants.THREAD_OUTPUT, stalled -> {
+            outputHeartbeat = watchdog.renew(stalled);
+            restartConsumer();
+        });
+        serialHeartbeat = watchdog.register(Constants.THREAD_SERIAL, Constants.SERIAL_WRITE_TIMEOUT_MILLIS, stalled -> {
+            serialHeartbeat = watchdog.renew(stalled);
+            reconnectSerial();
+        });
+        // Serial ports are enumerated off the startup path, frames are dropped until the port is open
+        executorManager.getHousekeepingExecutor().execute(this::connectSerial);
+        if (config.isAutoCalibrate()) {
+            // Capture started meanwhile waits for calibration, see startCaptureWhenCalibrated
+            calibration = CompletableFuture.runAsync(() -> CaptureCalibration.calibrateIfNeeded(config), executorManager.getCalibrationExecutor())
+                    .exceptionally(throwable -> {
+                        // Capture still starts with the configured backend
+                        logger.error(throwable.getMessage());
+                        return null;
+                    })
+                    .thenRunAsync(this::applyCalibration, executorManager.getHousekeepingExecutor());
+        }
+        startConsumer();
+
+        if (config.isMqttEnable()) {
+            mqttManager = new MQTTManager();
+        } else {
+            logger.debug(Constants.MQTT_DISABLED);
+        }
+        // Producers are created on start and released on stop
+        captureStateMachine = new CaptureStateMachine(mqttManager, this::startCaptureWhenCalibrated, this::stopCapture);
+        try {
+            ConfigWatcher configWatcher = new ConfigWatcher();
+            executorManager.getHousekeepingExecutor().scheduleAtFixedRate(configWatcher::poll, Constants.CONFIG_WATCH_PERIOD,
+                    Constants.CONFIG_WATCH_PERIOD, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+        // Manage tray icon and framerate dialog
+        guiManager = new GUIManager(mqttManager, stage);
+        guiManager.initTray();
+        getFPS();
+
+    }
+
+    /**
+     * Publish the calibrated snapshot and resize the capture pool, runs on the housekeeping thread
+     */
+    void applyCalibration() {
+
+        initThreadPool();
+        executorManager.getCaptureExecutor().setCorePoolSize(executorNumber);
+        runtimeConfig.set(RuntimeConfig.compile(config));
+        CaptureContext.clearPlanCache();
+
+    }
+
+    /**
+     * Run the consumer on the output thread
+     */
+    void startConsumer() {
+
         CompletableFuture.supplyAsync(() -> {
             try {
                 consume();
-            } catch (InterruptedException | IOException e) {
+            } catch (InterruptedException e) {
+                // Restarted by the watchdog
+                Thread.currentThread().interrupt();
+                return Constants.CONSUMER_RESTARTED;
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
             return Constants.SOMETHING_WENT_WRONG;
-        }, scheduledExecutorService).thenAcceptAsync(logger::info).exceptionally(e -> {
+        }, executorManager.getOutputExecutor()).thenAcceptAsync(logger::info, executorManager.getHousekeepingExecutor()).exceptionally(e -> {
             clean();
-            scheduledExecutorService.shutdownNow();
+            executorManager.shutdown();
             Thread.currentThread().interrupt();
             return null;
         });
 
-        if (config.isMqttEnable()) {
-            mqttManager = new MQTTManager();
+    }
+
+    /**
+     * Find and open the serial port, then start writing to it. Runs on the housekeeping thread.
+     */
+    void connectSerial() {
+
+        initSerial();
+        initOutputStream();
+        startSerialWriter();
+
+    }
+
+    /**
+     * Run the serial writer on the serial thread, the consumer hands it the encoded frames
+     */
+    void startSerialWriter() {
+
+        if (output != null) {
+            serialWriter = new SerialWriter(output, config.getDataRate(), serialHeartbeat,
+                    () -> executorManager.getHousekeepingExecutor().execute(this::reconnectSerial));
+            serialWriter.start(executorManager.getSerialExecutor());
         } else {
-            logger.debug(Constants.MQTT_DISABLED);
+            serialWriter = null;
+        }
+
+    }
+
+    /**
+     * Restart a stalled consumer, the output thread is replaced since a blocked publish can't be interrupted
+     */
+    void restartConsumer() {
+
+        executorManager.restartOutputExecutor();
+        startConsumer();
+
+    }
+
+    /**
+     * Close a failed or stalled serial port and poll for it to come back, capture keeps running
+     * and frames are dropped until the port is reopened. Runs on the housekeeping thread.
+     */
+    void reconnectSerial() {
+
+        if (serialReconnect != null || serialPortName == null) {
+            return;
+        }
+        logger.error(Constants.SERIAL_DISCONNECTED + serialPortName);
+        serialWriter = null;
+        executorManager.restartSerialExecutor();
+        clean();
+        output = null;
+        serialTransport = null;
+        serialRescanDelay = Constants.SERIAL_RECONNECT_PERIOD;
+        nextSerialRescan = 0;
+        serialReconnect = executorManager.getHousekeepingExecutor().scheduleWithFixedDelay(this::tryReconnectSerial,
+                Constants.SERIAL_RECONNECT_PERIOD, Constants.SERIAL_RECONNECT_PERIOD, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Reopen the serial port if it's back, by name or by USB id, and resume writing.
+     * Ports are enumerated only when the port may be connected and the rescan delay is over.
+     */
+    void tryReconnectSerial() {
+
+        SerialTransport transport;
+        if (serialPortName.startsWith(Constants.PTY_PATH)) {
+            transport = new PtyTransport(serialPortName);
+        } else {
+            if (!SerialPortLocator.mayBeConnected(serialPortName, serialUsbId) || System.currentTimeMillis() < nextSerialRescan) {
+                return;
+            }
+            CommPortIdentifier serialPortId = SerialPortLocator.find(serialPortName, serialUsbId);
+            if (serialPortId == null) {
+                backOffSerialRescan();
+                return;
+            }
+            transport = new NrSerialTransport(serialPortId, this.getClass().getName(), config.getTimeout(), config.getDataRate());
+        }
+        try {
+            transport.open();
+            output = transport.getOutputStream();
+        } catch (IOException e) {
+            // Not ready yet, tried again on the next poll
+            transport.close();
+            backOffSerialRescan();
+            return;
+        }
+        serialTransport = transport;
+        serialPortName = transport.getName();
+        serialReconnect.cancel(false);
+        serialReconnect = null;
+        startSerialWriter();
+        logger.info(Constants.SERIAL_RECONNECTED + serialPortName);
+
+    }
+
+    /**
+     * Wait longer before enumerating the ports again
+     */
+    void backOffSerialRescan() {
+
+        serialRescanDelay = Math.min(serialRescanDelay * 2, Constants.SERIAL_RESCAN_MAX_DELAY);
+        nextSerialRescan = System.currentTimeMillis() + serialRescanDelay;
+
+    }
+
+    /**
+     * Create the producers once calibration is done, benchmarks never compete with the producers.
+     * Capture stopped meanwhile is not started, a capture already started is not started twice.
+     */
+    void startCaptureWhenCalibrated() {
+
+        calibration.thenRunAsync(() -> {
+            if (RUNNING && captureFutures.isEmpty()) {
+                startCapture();
+            }
+        }, executorManager.getHousekeepingExecutor());
+
+    }
+
+    /**
+     * Create the producers and the tasks watching them
+     */
+    void startCapture() {
+
+        ScheduledExecutorService scheduledExecutorService = executorManager.getCaptureExecutor();
+        if (runtimeConfig.get().isGStreamerCapture()) {
+            // Desktop Duplication API producers
+            launchDDUPLGrabber(scheduledExecutorService);
+        } else {
+            // Standard Producers
+            launchStandardGrabber(scheduledExecutorService);
+        }
+        captureFutures.add(executorManager.getHousekeepingExecutor().scheduleAtFixedRate(watchdog::check,
+                Constants.WATCHDOG_PERIOD, Constants.WATCHDOG_PERIOD, TimeUnit.SECONDS));
+
+    }
+
+    /**
+     * Cancel every producer and release capture contexts and pipeline, nothing wakes up while stopped.
+     * Contexts are closed on the capture threads once their last frame has been captured.
+     */
+    void stopCapture() {
+
+        captureFutures.forEach(future -> future.cancel(false));
+        captureFutures.clear();
+        captureHeartbeats.forEach(watchdog::unregister);
+        captureHeartbeats.clear();
+        captureContexts.forEach(captureContext -> executorManager.getCaptureExecutor().execute(captureContext::close));
+        captureContexts.clear();
+        cpuGovernor = null;
+        disposePipeline();
+        edgeGrabbers.clear();
+        sharedQueue.clear();
+
+    }
+
+    /**
+     * Stop and release the GStreamer pipeline with its appsinks, called before the pipeline is replaced
+     */
+    static void disposePipeline() {
+
+        if (pipe != null) {
+            pipe.stop();
+            pipe.dispose();
+            pipe = null;
         }
-        // Manage tray icon and framerate dialog
-        guiManager = new GUIManager(mqttManager, stage);
-        guiManager.initTray();
-        getFPS();
 
     }
 
@@ -167,57 +451,268 @@ public class FireflyLuciferin extends Application {
      */
     void launchDDUPLGrabber(ScheduledExecutorService scheduledExecutorService) {
 
-        imageProcessor.initGStreamerLibraryPaths();
-        Gst.init(Constants.SCREEN_GRABBER, "");
         Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
 
-        scheduledExecutorService.scheduleAtFixedRate(() -> {
-            if (RUNNING && FPS_PRODUCER_COUNTER == 0) {
+        captureFutures.add(scheduledExecutorService.scheduleAtFixedRate(() -> {
+            if (RUNNING && !edgeGrabbers.isEmpty() && (!ImageProcessor.getDisplaySize().equals(edgeDisplaySize)
+                    || !ledMatrixInUse.equals(edgeLedMatrix))) {
+                // Display resolution or LED matrix changed, crop the new edges on the running pipeline
+                edgeDisplaySize = ImageProcessor.getDisplaySize();
+                edgeLedMatrix = ledMatrixInUse;
+                logger.info(Constants.CAPTURE_GEOMETRY_CHANGED);
+                if (!GStreamerGrabber.resizeEdgePipeline(pipe, edgeGrabbers, edgeDisplaySize)) {
+                    // Rebuilt on this tick
+                    disposePipeline();
+                    edgeGrabbers.clear();
+                    FPS_PRODUCER_COUNTER = 0;
+                }
+            }
+            if (RUNNING && FPS_PRODUCER_COUNTER == 0 && Platform.isLinux() && config.isGstreamerEdgeCrop() && config.getCaptureWindow().isEmpty()) {
+                edgeGrabbers.clear();
+                edgeDisplaySize = ImageProcessor.getDisplaySize();
+                edgeLedMatrix = ledMatrixInUse;
+                disposePipeline();
+                pipe = GStreamerGrabber.buildEdgePipeline(Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_LINUX, true), edgeGrabbers);
+                pipe.play();
+            } else if (RUNNING && FPS_PRODUCER_COUNTER == 0) {
                 GStreamerGrabber vc = new GStreamerGrabber();
                 Bin bin;
                 if (Platform.isWindows()) {
                     bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_WINDOWS,true);
                 } else {
-                    bin = Gst.parseBinFromDescription(Constants.GSTREAMER_PIPELINE_LINUX,true);
+                    bin = Gst.parseBinFromDescription(getLinuxPipeline(), true);
                 }
+                disposePipeline();
                 pipe = new Pipeline();
                 pipe.addMany(bin, vc.getElement());
                 Pipeline.linkMany(bin, vc.getElement());
-                JFrame f = new JFrame(Constants.SCREEN_GRABBER);
-                f.add(vc);
+                if (grabberFrame == null) {
+                    grabberFrame = new JFrame(Constants.SCREEN_GRABBER);
+                    grabberFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                }
+                // The grabber of the previous pipeline is replaced
+                grabberFrame.getContentPane().removeAll();
+                grabberFrame.add(vc);
                 vc.setPreferredSize(new Dimension((int)screenSize.getWidth(), (int)screenSize.getHeight()));
-                f.pack();
-                f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                grabberFrame.pack();
                 pipe.play();
-                f.setVisible(false);
+                grabberFrame.setVisible(false);
             }
-        }, 1, 2, TimeUnit.SECONDS);
+        }, 0, 2, TimeUnit.SECONDS));
+
+    }
+
+    /**
+     * Linux pipeline, restricted to a single window when a capture window is configured
+     * @return pipeline description
+     */
+    String getLinuxPipeline() {
+
+        if (!config.getCaptureWindow().isEmpty()) {
+            X11.Window window = X11WindowFinder.findWindow(config.getCaptureWindow());
+            if (window != null) {
+                return String.format(Constants.GSTREAMER_PIPELINE_LINUX_WINDOW, window.longValue());
+            }
+            logger.error(Constants.CAPTURE_WINDOW_NOT_FOUND + config.getCaptureWindow());
+        }
+        return Constants.GSTREAMER_PIPELINE_LINUX;
 
     }
 
     /**
      * Producers for CPU and WinAPI capturing
      * @param scheduledExecutorService executor service used to restart grabbing if it fails
-     * @throws AWTException GUI exception
      */
-    void launchStandardGrabber(ScheduledExecutorService scheduledExecutorService) throws AWTException {
-
-        Robot robot = null;
+    void launchStandardGrabber(ScheduledExecutorService scheduledExecutorService) {
 
+        if (config.isCooperativeCapture()) {
+            launchCooperativeGrabber(scheduledExecutorService);
+            return;
+        }
+        AdaptiveCaptureRate adaptiveCaptureRate = createAdaptiveCaptureRate();
+        startCpuGovernor(executorNumber);
         for (int i = 0; i < executorNumber; i++) {
-            // One AWT Robot instance every 3 threads seems to be the sweet spot for performance/memory.
-            if (!(config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.WinAPI.name())) && i%3 == 0) {
-                robot = new Robot();
-                logger.info(Constants.SPAWNING_ROBOTS);
+            int producer = i;
+            ScheduledFuture<?>[] producerFuture = new ScheduledFuture<?>[1];
+            Watchdog.Heartbeat heartbeat = watchdog.register(Constants.THREAD_CAPTURE + producer, stalled -> {
+                // The stalled thread may still be inside a native call, its context is closed on stop
+                producerFuture[0].cancel(true);
+                producerFuture[0] = scheduleProducer(scheduledExecutorService, producer, adaptiveCaptureRate, renewCaptureHeartbeat(stalled));
+            });
+            captureHeartbeats.add(heartbeat);
+            producerFuture[0] = scheduleProducer(scheduledExecutorService, producer, adaptiveCaptureRate, heartbeat);
+        }
+
+    }
+
+    /**
+     * Heartbeat for the replacement of a stalled producer
+     * @param stalled heartbeat of the stalled producer
+     * @return heartbeat of the new producer
+     */
+    Watchdog.Heartbeat renewCaptureHeartbeat(Watchdog.Heartbeat stalled) {
+
+        Watchdog.Heartbeat renewed = watchdog.renew(stalled);
+        captureHeartbeats.remove(stalled);
+        captureHeartbeats.add(renewed);
+        return renewed;
+
+    }
+
+    /**
+     * Schedule a standard producer with its own capture context
+     * @param scheduledExecutorService executor service used to run the producer
+     * @param producer producer index
+     * @param adaptiveCaptureRate idle detector, null if the adaptive capture rate is disabled
+     * @param heartbeat watchdog heartbeat of the producer
+     * @return producer future
+     */
+    @SneakyThrows
+    ScheduledFuture<?> scheduleProducer(ScheduledExecutorService scheduledExecutorService, int producer,
+                                        AdaptiveCaptureRate adaptiveCaptureRate, Watchdog.Heartbeat heartbeat) {
+
+        // Every producer owns its capture context, nothing is shared between producer threads
+        CaptureContext captureContext = CaptureContext.create();
+        captureContexts.add(captureContext);
+        logger.info(Constants.SPAWNING_CAPTURE_CONTEXT);
+        long[] tick = new long[1];
+        // No need for completablefuture here, we wrote the queue with a producer and we forget it
+        ScheduledFuture<?> producerFuture = scheduledExecutorService.scheduleAtFixedRate(() -> {
+            if (RUNNING && shouldCapture(producer, tick[0]++, adaptiveCaptureRate)) {
+                heartbeat.begin();
+                try {
+                    producerTask(captureContext, adaptiveCaptureRate);
+                } finally {
+                    heartbeat.end();
+                }
             }
-            Robot finalRobot = robot;
-            // No need for completablefuture here, we wrote the queue with a producer and we forget it
-            scheduledExecutorService.scheduleAtFixedRate(() -> {
-                if (RUNNING) {
-                    producerTask(finalRobot);
+        }, 0, 25, TimeUnit.MILLISECONDS);
+        captureFutures.add(producerFuture);
+        return producerFuture;
+
+    }
+
+    /**
+     * Cooperative producers, every producer captures and samples its own range of LEDs
+     * and the partial results are assembled in a single frame.
+     * Start times are staggered so producers don't hit the capture API at the same time.
+     * @param scheduledExecutorService executor service used to run the producers
+     */
+    void launchCooperativeGrabber(ScheduledExecutorService scheduledExecutorService) {
+
+        int parts = Math.min(executorNumber, ledNumber);
+        AdaptiveCaptureRate adaptiveCaptureRate = createAdaptiveCaptureRate();
+        FrameAssembler frameAssembler = new FrameAssembler(ledNumber, parts, adaptiveCaptureRate);
+        // Every part is needed to assemble a frame, the governor can only lower the rate
+        startCpuGovernor(1);
+        for (int i = 0; i < parts; i++) {
+            int part = i;
+            ScheduledFuture<?>[] partFuture = new ScheduledFuture<?>[1];
+            Watchdog.Heartbeat heartbeat = watchdog.register(Constants.THREAD_CAPTURE + part, stalled -> {
+                // The stalled thread may still be inside a native call, its context is closed on stop
+                partFuture[0].cancel(true);
+                partFuture[0] = schedulePart(scheduledExecutorService, frameAssembler, parts, part, adaptiveCaptureRate,
+                        renewCaptureHeartbeat(stalled));
+            });
+            captureHeartbeats.add(heartbeat);
+            partFuture[0] = schedulePart(scheduledExecutorService, frameAssembler, parts, part, adaptiveCaptureRate, heartbeat);
+        }
+
+    }
+
+    /**
+     * Schedule a cooperative producer with its own capture context
+     * @param scheduledExecutorService executor service used to run the producer
+     * @param frameAssembler assembler collecting the parts
+     * @param parts number of cooperative producers
+     * @param part producer index
+     * @param adaptiveCaptureRate idle detector, null if the adaptive capture rate is disabled
+     * @param heartbeat watchdog heartbeat of the producer
+     * @return producer future
+     */
+    @SneakyThrows
+    ScheduledFuture<?> schedulePart(ScheduledExecutorService scheduledExecutorService, FrameAssembler frameAssembler, int parts, int part,
+                                    AdaptiveCaptureRate adaptiveCaptureRate, Watchdog.Heartbeat heartbeat) {
+
+        int[] range = FrameAssembler.getRange(ledNumber, parts, part);
+        CaptureContext captureContext = CaptureContext.create(range[0], range[1]);
+        captureContexts.add(captureContext);
+        logger.info(Constants.SPAWNING_CAPTURE_CONTEXT);
+        int[] ledIndexes = IntStream.range(range[0], range[1]).toArray();
+        Color[] leds = new Color[ledNumber];
+        long[] tick = new long[1];
+        ScheduledFuture<?> partFuture = scheduledExecutorService.scheduleAtFixedRate(() -> {
+            // Producers tick in lockstep, while idle or throttled they all skip the same ticks
+            if (RUNNING && shouldCapture(0, tick[0]++, adaptiveCaptureRate)) {
+                heartbeat.begin();
+                try {
+                    captureContext.capture(leds);
+                    frameAssembler.contribute(part, leds, ledIndexes);
+                } finally {
+                    heartbeat.end();
                 }
-            }, 0, 25, TimeUnit.MILLISECONDS);
+            }
+        }, (25000L * part) / parts, 25000, TimeUnit.MICROSECONDS);
+        captureFutures.add(partFuture);
+        return partFuture;
+
+    }
+
+    /**
+     * Switch the LED matrix in use without restarting the capture, producers swap their precompiled plans on the next frame
+     * @param ledMatrix matrix to use
+     * @return true if the matrix has been switched
+     */
+    public static boolean switchLedMatrix(String ledMatrix) {
+
+        LinkedHashMap<Integer, LEDCoordinate> ledMatrixCoordinates = config.getLedMatrixInUse(ledMatrix);
+        // The consumer expects frames with the same number of LEDs
+        if (ledMatrix.equals(ledMatrixInUse) || ledMatrixCoordinates == null
+                || ledMatrixCoordinates.size() != config.getLedMatrixInUse(ledMatrixInUse).size()) {
+            return false;
         }
+        config.setDefaultLedMatrix(ledMatrix);
+        ledMatrixInUse = ledMatrix;
+        logger.info(Constants.CAPTURE_MODE_CHANGED + ledMatrix);
+        return true;
+
+    }
+
+    /**
+     * Check if a producer should capture on this tick
+     * @param producer producer index
+     * @param tick producer tick counter
+     * @param adaptiveCaptureRate idle detector, null if the adaptive capture rate is disabled
+     * @return true if neither the idle detector nor the CPU governor skip this tick
+     */
+    boolean shouldCapture(int producer, long tick, AdaptiveCaptureRate adaptiveCaptureRate) {
+
+        return (adaptiveCaptureRate == null || adaptiveCaptureRate.shouldCapture(tick))
+                && (cpuGovernor == null || cpuGovernor.shouldCapture(producer, tick));
+
+    }
+
+    /**
+     * Start the CPU governor if a CPU budget is configured
+     * @param maxProducers number of producers the governor can park
+     */
+    void startCpuGovernor(int maxProducers) {
+
+        if (config.getCpuBudget() > 0) {
+            cpuGovernor = new CpuGovernor(maxProducers);
+            captureFutures.add(executorManager.getHousekeepingExecutor().scheduleAtFixedRate(cpuGovernor::regulate,
+                    Constants.GOVERNOR_PERIOD, Constants.GOVERNOR_PERIOD, TimeUnit.SECONDS));
+        }
+
+    }
+
+    /**
+     * Detector used to lower the capture rate while the screen is static
+     * @return shared detector, null if the adaptive capture rate is disabled
+     */
+    AdaptiveCaptureRate createAdaptiveCaptureRate() {
+
+        return config.isAdaptiveCaptureRate() ? new AdaptiveCaptureRate(Constants.IDLE_FRAMES, Constants.IDLE_RATE_DIVIDER) : null;
 
     }
 
@@ -258,7 +753,6 @@ public class FireflyLuciferin extends Application {
      */
     void getFPS() {
 
-        ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
         // Create a task that runs every 5 seconds
         Runnable framerateTask = () -> {
             if (FPS_PRODUCER_COUNTER > 0 || FPS_CONSUMER_COUNTER > 0) {
@@ -271,7 +765,7 @@ public class FireflyLuciferin extends Application {
                 FPS_PRODUCER = FPS_CONSUMER = 0;
             }
         };
-        scheduledExecutorService.scheduleAtFixedRate(framerateTask, 0, 5, TimeUnit.SECONDS);
+        executorManager.getHousekeepingExecutor().scheduleAtFixedRate(framerateTask, 0, 5, TimeUnit.SECONDS);
 
     }
 
@@ -280,40 +774,67 @@ public class FireflyLuciferin extends Application {
      */
     private void initSerial() {
 
-        CommPortIdentifier serialPortId = null;
+        serialTransport = null;
         if (!(config.isMqttEnable() && config.isMqttStream())) {
-            var enumComm = CommPortIdentifier.getPortIdentifiers();
-            while (enumComm.hasMoreElements() && serialPortId == null) {
-                CommPortIdentifier serialPortAvailable = (CommPortIdentifier) enumComm.nextElement();
-                if (config.getSerialPort().equals(serialPortAvailable.getName()) || config.getSerialPort().equals(Constants.SERIAL_PORT_AUTO)) {
-                    serialPortId = serialPortAvailable;
+            if (config.getSerialPort().startsWith(Constants.PTY_PATH)) {
+                // Pseudo terminal of the Adalight emulator
+                serialTransport = new PtyTransport(config.getSerialPort());
+            } else {
+                CommPortIdentifier serialPortId = SerialPortLocator.findConfigured(config.getSerialPort(), config.getLastSerialPort());
+                if (serialPortId != null) {
+                    serialTransport = new NrSerialTransport(serialPortId, this.getClass().getName(),
+                            config.getTimeout(), config.getDataRate());
                 }
             }
             try {
-                if (serialPortId != null) {
-                    logger.info(Constants.SERIAL_PORT_IN_USE + serialPortId.getName());
-                    serial = serialPortId.open(this.getClass().getName(), config.getTimeout());
-                    serial.setSerialPortParams(config.getDataRate(), SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+                if (serialTransport != null) {
+                    logger.info(Constants.SERIAL_PORT_IN_USE + serialTransport.getName());
+                    serialTransport.open();
+                    serialPortName = serialTransport.getName();
+                    serialUsbId = SerialPortLocator.readUsbId(serialPortName);
+                    cacheSerialPort(serialPortName);
                 }
-            } catch (PortInUseException | UnsupportedCommOperationException | NullPointerException e) {
+            } catch (IOException e) {
+                serialTransport = null;
                 communicationError = true;
-                GUIManager guiManager = new GUIManager();
-                guiManager.showAlert(Constants.SERIAL_ERROR_TITLE,
+                javafx.application.Platform.runLater(() -> new GUIManager().showAlert(Constants.SERIAL_ERROR_TITLE,
                         Constants.SERIAL_ERROR_OPEN_HEADER,
-                        Constants.SERIAL_ERROR_CONTEXT, Alert.AlertType.ERROR);
+                        Constants.SERIAL_ERROR_CONTEXT, Alert.AlertType.ERROR));
                 logger.error(Constants.SERIAL_ERROR_OPEN_HEADER);
             }
         }
 
     }
 
+    /**
+     * Remember the port found by the automatic port search, it's tried first on the next startup
+     * @param portName port in use
+     */
+    private void cacheSerialPort(String portName) {
+
+        if (Constants.SERIAL_PORT_AUTO.equals(config.getSerialPort()) && !portName.equals(config.getLastSerialPort())) {
+            config.setLastSerialPort(portName);
+            try {
+                new StorageManager().writeConfig(config);
+                ConfigWatcher.markOwnWrite();
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+            }
+        }
+
+    }
+
     /**
      * Initialize how many Threads to use in the ThreadPool and how many Executor to use
      */
     private void initThreadPool() {
 
+        if (config.isAutoCalibrate() && config.getCalibratedProducers() > 0) {
+            // Calibration already measured how many producers this machine needs
+            executorNumber = config.getCalibratedProducers();
+            return;
+        }
         int numberOfCPUThreads = config.getNumberOfCPUThreads();
-        threadPoolNumber = numberOfCPUThreads * 2;
         if (numberOfCPUThreads > 1) {
             if (!(config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.CPU.name()))) {
                 executorNumber = numberOfCPUThreads;
@@ -333,13 +854,12 @@ public class FireflyLuciferin extends Application {
 
         if (!(config.isMqttEnable() && config.isMqttStream()) && !communicationError) {
             try {
-                output = serial.getOutputStream();
+                output = serialTransport.getOutputStream();
             } catch (IOException | NullPointerException e) {
                 communicationError = true;
-                GUIManager guiManager = new GUIManager();
-                guiManager.showAlert(Constants.SERIAL_ERROR_TITLE,
+                javafx.application.Platform.runLater(() -> new GUIManager().showAlert(Constants.SERIAL_ERROR_TITLE,
                         Constants.SERIAL_ERROR_HEADER,
-                        Constants.SERIAL_ERROR_CONTEXT, Alert.AlertType.ERROR);
+                        Constants.SERIAL_ERROR_CONTEXT, Alert.AlertType.ERROR));
                 logger.error(e.getMessage());
                 logger.error(Constants.SERIAL_ERROR_HEADER);
             }
@@ -354,60 +874,56 @@ public class FireflyLuciferin extends Application {
      */
     private void sendColors(Color[] leds) throws IOException {
 
-        if ("Clockwise".equals(config.getOrientation())) {
-            Collections.reverse(Arrays.asList(leds));
-        }
+        RuntimeConfig runtime = runtimeConfig.get();
+        // Wiring order and channel order are applied while encoding
+        OutputPermutation outputPermutation = runtime.getOutputPermutation();
+        int outputLedNumber = outputPermutation.getLedNumber();
 
-        int i = 0, j = -1;
-        if (config.isMqttEnable() && config.isMqttStream()) {
+        int i = 0;
+        if (runtime.isMqttStream()) {
 
-            StringBuilder ledString = new StringBuilder("{" + "\"lednum\":" + ledNumber + ",\"stream\":[");
-            while (i < ledNumber) {
-                ledString.append(leds[i].getRGB());
+            StringBuilder ledString = new StringBuilder("{" + "\"lednum\":" + outputLedNumber + ",\"stream\":[");
+            while (i < outputLedNumber) {
+                ledString.append(outputPermutation.getColor(leds, i).getRGB());
                 ledString.append(",");
                 i++;
             }
             ledString.append(".");
             mqttManager.stream(ledString.toString().replace(",.","") + "]}");
+            FPS_CONSUMER_COUNTER++;
 
         } else {
 
-            byte[] ledsArray = new byte[(ledNumber * 3) + 6];
-
-            // Adalight checksum
-            int ledsCountHi = ((ledNumber - 1) >> 8) & 0xff;
-            int ledsCountLo = (ledNumber - 1) & 0xff;
-
-            ledsArray[++j] = (byte) ('A');
-            ledsArray[++j] = (byte) ('d');
-            ledsArray[++j] = (byte) ('a');
-            ledsArray[++j] = (byte) (ledsCountHi);
-            ledsArray[++j] = (byte) (ledsCountLo);
-            ledsArray[++j] = (byte) ((ledsCountHi ^ ledsCountLo ^ 0x55));
-
-            while (i < ledNumber) {
-                ledsArray[++j] = (byte) leds[i].getRed();
-                ledsArray[++j] = (byte) leds[i].getGreen();
-                ledsArray[++j] = (byte) leds[i].getBlue();
-                i++;
+            // Dithering state is kept until the snapshot changes
+            if (frameEncoderConfig != runtime) {
+                frameEncoder = new FrameEncoder(runtime.getSerialEncoding(), outputPermutation,
+                        runtime.getConfiguration().isDithering(), runtime.getConfiguration().isSerialCompression());
+                frameEncoderConfig = runtime;
+            }
+            byte[] ledsArray = frameEncoder.encode(leds);
+            // Written on the serial thread, counted by the writer once written
+            SerialWriter writer = serialWriter;
+            if (writer != null) {
+                writer.write(ledsArray);
             }
-            output.write(ledsArray);
 
         }
 
-        FPS_CONSUMER_COUNTER++;
-
     }
 
     /**
-     * Write Serial Stream to the Serial Output
+     * Capture the screen and offer the LED colors to the consumer
      *
-     * @param robot an AWT Robot instance for screen capture.
-     *              One instance every three threads seems to be the hot spot for performance.
+     * @param captureContext capture context owned by the producer running this task
+     * @param adaptiveCaptureRate detector fed with every frame, null if the adaptive capture rate is disabled
      */
-    private void producerTask(Robot robot) {
+    private void producerTask(CaptureContext captureContext, AdaptiveCaptureRate adaptiveCaptureRate) {
 
-        sharedQueue.offer(ImageProcessor.getColors(robot, null));
+        Color[] leds = captureContext.getColors();
+        sharedQueue.offer(leds);
+        if (adaptiveCaptureRate != null) {
+            adaptiveCaptureRate.update(leds);
+        }
         FPS_PRODUCER_COUNTER++;
         //System.gc(); // uncomment when hammering the JVM
 
@@ -419,11 +935,18 @@ public class FireflyLuciferin extends Application {
     @SuppressWarnings("InfiniteLoopStatement")
     void consume() throws InterruptedException, IOException {
 
+        // A restarted consumer gets a new heartbeat, this one stays with this consumer
+        Watchdog.Heartbeat heartbeat = outputHeartbeat;
         while (true) {
             Color[] num = sharedQueue.take();
             if (RUNNING) {
                 if (num.length == ledNumber) {
-                    sendColors(num);
+                    heartbeat.begin();
+                    try {
+                        sendColors(num);
+                    } finally {
+                        heartbeat.end();
+                    }
                 }
             }
         }
@@ -442,8 +965,8 @@ public class FireflyLuciferin extends Application {
                 e.printStackTrace();
             }
         }
-        if(serial != null) {
-            serial.close();
+        if(serialTransport != null) {
+            serialTransport.close();
         }
 
     }
@@ -46,7 +46,7 @@ public class LEDCoordinate {
                                                                int rightLed, int topLed, int leftLed, int bottomLeftLed) {
 
         LinkedHashMap<Integer, LEDCoordinate> defaultLedMatrix = new LinkedHashMap<>();
-        initializeLedMatrix(defaultLedMatrix, 0.10, screenWidth, screenHeight, bottomRightLed, rightLed, topLed, leftLed, bottomLeftLed);
+        initializeLedMatrix(defaultLedMatrix, 0.10, 0, screenWidth, screenHeight, bottomRightLed, rightLed, topLed, leftLed, bottomLeftLed);
         return defaultLedMatrix;
 
     }
@@ -60,16 +60,32 @@ public class LEDCoordinate {
                                                               int rightLed, int topLed, int leftLed, int bottomLeftLed) {
 
         LinkedHashMap<Integer, LEDCoordinate> defaultLedMatrix = new LinkedHashMap<>();
-        initializeLedMatrix(defaultLedMatrix, 0.15, screenWidth, screenHeight, bottomRightLed, rightLed, topLed,
+        initializeLedMatrix(defaultLedMatrix, 0.15, 0, screenWidth, screenHeight, bottomRightLed, rightLed, topLed,
                 leftLed, bottomLeftLed);
         return defaultLedMatrix;
 
     }
 
-    void initializeLedMatrix(LinkedHashMap<Integer, LEDCoordinate> defaultLedMatrix, double borderRatio, int width, int height,
-                             int bottomRightLed, int rightLed, int topLed, int leftLed, int bottomLeftLed) {
+    /**
+     * Init Pillarbox LED Matrix with a default general purpose config, side bars of 4:3 content on a 16:9 screen
+     *
+     * @return LED pillarbox matrix
+     */
+    public LinkedHashMap<Integer, LEDCoordinate> initPillarboxLedMatrix(int screenWidth, int screenHeight, int bottomRightLed,
+                                                              int rightLed, int topLed, int leftLed, int bottomLeftLed) {
+
+        LinkedHashMap<Integer, LEDCoordinate> defaultLedMatrix = new LinkedHashMap<>();
+        initializeLedMatrix(defaultLedMatrix, 0.10, 0.125, screenWidth, screenHeight, bottomRightLed, rightLed, topLed,
+                leftLed, bottomLeftLed);
+        return defaultLedMatrix;
+
+    }
+
+    void initializeLedMatrix(LinkedHashMap<Integer, LEDCoordinate> defaultLedMatrix, double borderRatio, double sideBorderRatio,
+                             int width, int height, int bottomRightLed, int rightLed, int topLed, int leftLed, int bottomLeftLed) {
 
         var border = (int) (height * borderRatio);
+        var sideBorder = (int) (width * sideBorderRatio);
         var ledNum = 0;
 
         // bottomRight LED strip
@@ -77,33 +93,46 @@ public class LEDCoordinate {
         var bottomLedDistance = ((width / 2) - bottomSpace) / bottomRightLed;
         for (int i = 1; i <= bottomRightLed; i++) {
             ledNum++;
-            defaultLedMatrix.put(ledNum, new LEDCoordinate((int) ((int) (((int) (bottomLedDistance * i)) - bottomLedDistance) + (width/2) + (bottomSpace+10)), height - (border)));
+            defaultLedMatrix.put(ledNum, new LEDCoordinate(insideSideBorders((int) ((int) (((int) (bottomLedDistance * i)) - bottomLedDistance) + (width/2) + (bottomSpace+10)), width, sideBorder), height - (border)));
         }
         // right LED strip
         var rightLedDistance = (height - (border * 2)) / rightLed;
         for (int i = 1; i <= rightLed; i++) {
             ledNum++;
-            defaultLedMatrix.put(ledNum, new LEDCoordinate(width - 70, (height - (rightLedDistance * i)) - border));
+            defaultLedMatrix.put(ledNum, new LEDCoordinate(width - 70 - sideBorder, (height - (rightLedDistance * i)) - border));
         }
         // top LED strip
         var topLedDistance = (width) / topLed;
         for (int i = 1; i <= topLed; i++) {
             ledNum++;
-            defaultLedMatrix.put(ledNum, new LEDCoordinate(width - (topLedDistance * i), border - 30));
+            defaultLedMatrix.put(ledNum, new LEDCoordinate(insideSideBorders(width - (topLedDistance * i), width, sideBorder), border - 30));
         }
         // left LED strip
         var leftLedDistance = (height - (border * 2)) / leftLed;
         for (int i = leftLed; i >= 1; i--) {
             ledNum++;
-            defaultLedMatrix.put(ledNum, new LEDCoordinate(70, (height - (leftLedDistance * i)) - border));
+            defaultLedMatrix.put(ledNum, new LEDCoordinate(70 + sideBorder, (height - (leftLedDistance * i)) - border));
         }
         // bottomLeft LED strip
         var bottomLedLeftDistance = ((width / 2) - bottomSpace) / bottomLeftLed;
         for (int i = 1; i <= bottomLeftLed; i++) {
             ledNum++;
-            defaultLedMatrix.put(ledNum, new LEDCoordinate((int) (((int) (bottomLedLeftDistance * i)) - bottomLedLeftDistance), height - (border)));
+            defaultLedMatrix.put(ledNum, new LEDCoordinate(insideSideBorders((int) (((int) (bottomLedLeftDistance * i)) - bottomLedLeftDistance), width, sideBorder), height - (border)));
         }
 
     }
 
+    /**
+     * Map a X coordinate of the entire screen width into the area between the side borders
+     * @param x X coordinate
+     * @param width screen width
+     * @param sideBorder width of a side border
+     * @return X coordinate between the side borders
+     */
+    int insideSideBorders(int x, int width, int sideBorder) {
+
+        return sideBorder + (x * (width - 2 * sideBorder)) / width;
+
+    }
+
 }
\ No newline at end of file
@@ -26,8 +26,9 @@ import org.eclipse.paho.client.mqttv3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 
@@ -38,6 +39,8 @@ public class MQTTManager implements MqttCallback {
     MqttClient client;
     boolean connected = false;
     boolean reconnectionThreadRunning = false;
+    // Messages waiting for the broker acknowledgement
+    final Map<IMqttDeliveryToken, CompletableFuture<Void>> pendingDeliveries = new ConcurrentHashMap<>();
 
     /**
      * Constructor
@@ -102,6 +105,38 @@ public class MQTTManager implements MqttCallback {
 
     }
 
+    /**
+     * Publish to a topic without waiting for the delivery
+     * @param msg msg for the queue
+     * @return future completed when the message is acknowledged or when the acknowledgement times out
+     */
+    public CompletableFuture<Void> publishToTopicAsync(String msg) {
+
+        CompletableFuture<Void> delivered = new CompletableFuture<>();
+        MqttMessage message = new MqttMessage();
+        message.setPayload(msg.getBytes());
+        try {
+            MqttDeliveryToken token = client.getTopic(FireflyLuciferin.config.getMqttTopic()).publish(message);
+            pendingDeliveries.put(token, delivered);
+            if (token.isComplete()) {
+                pendingDeliveries.remove(token);
+                delivered.complete(null);
+            } else {
+                FireflyLuciferin.executorManager.getHousekeepingExecutor().schedule(() -> {
+                    pendingDeliveries.remove(token);
+                    if (delivered.complete(null)) {
+                        logger.error(Constants.MQTT_ACK_TIMEOUT);
+                    }
+                }, Constants.MQTT_ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (MqttException e) {
+            logger.error(Constants.MQTT_CANT_SEND);
+            delivered.complete(null);
+        }
+        return delivered;
+
+    }
+
     /**
      * Stream messages to the stream topic
      * @param msg msg for the queue
@@ -126,8 +161,9 @@ public class MQTTManager implements MqttCallback {
         logger.error("Connection Lost");
         connected = false;
         if (!reconnectionThreadRunning) {
-            ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
-            scheduledExecutorService.scheduleAtFixedRate(() -> {
+            // A single reconnection task runs on the housekeeping thread for the whole application lifetime
+            reconnectionThreadRunning = true;
+            FireflyLuciferin.executorManager.getHousekeepingExecutor().scheduleAtFixedRate(() -> {
                 if (!connected) {
                     try {
                         client.setCallback(this);
@@ -166,7 +202,12 @@ public class MQTTManager implements MqttCallback {
      */
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
-        //logger.info("delivered");
+
+        CompletableFuture<Void> delivered = pendingDeliveries.remove(token);
+        if (delivered != null) {
+            delivered.complete(null);
+        }
+
     }
 
 }
\ No newline at end of file
@@ -28,6 +28,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
 /**
@@ -85,6 +87,16 @@ public class StorageManager {
 
     }
 
+    /**
+     * Folder containing the configuration file
+     * @return folder path
+     */
+    public Path getConfigFolder() {
+
+        return Paths.get(path);
+
+    }
+
     /**
      * Load configuration file
      * @return config file
@@ -0,0 +1,181 @@
+/*
+  Watchdog.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware;
+
+import lombok.Getter;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Detect stalled pipeline stages and restart them.
+ * Every producer and the output register a heartbeat and mark the begin and the end of every unit of work,
+ * a stage is stalled when a unit of work runs longer than the stall timeout, only the stalled stage is restarted.
+ * The replacement of a stalled worker gets a renewed heartbeat, the stalled worker may return later and
+ * must not mark the work of its replacement as done. Stall counts and recovery times are kept for every stage.
+ */
+public class Watchdog {
+
+    private static final Logger logger = LoggerFactory.getLogger(Watchdog.class);
+
+    @Getter private final List<Heartbeat> heartbeats = new CopyOnWriteArrayList<>();
+
+    /**
+     * Register a stage using the default stall timeout
+     * @param name stage name
+     * @param restart task restarting the stage, it receives the stalled heartbeat and runs on the watchdog thread
+     * @return heartbeat of the stage
+     */
+    public Heartbeat register(String name, Consumer<Heartbeat> restart) {
+
+        return register(name, Constants.WATCHDOG_STALL_MILLIS, restart);
+
+    }
+
+    /**
+     * Register a stage
+     * @param name stage name
+     * @param stallMillis a unit of work running longer than this is stalled
+     * @param restart task restarting the stage, it receives the stalled heartbeat and runs on the watchdog thread
+     * @return heartbeat of the stage
+     */
+    public Heartbeat register(String name, long stallMillis, Consumer<Heartbeat> restart) {
+
+        Heartbeat heartbeat = new Heartbeat(name, TimeUnit.MILLISECONDS.toNanos(stallMillis), restart);
+        heartbeats.add(heartbeat);
+        return heartbeat;
+
+    }
+
+    /**
+     * Heartbeat for the replacement of a stalled worker, the stage keeps its stall count and its stall time.
+     * The old heartbeat is no longer watched, the stalled worker can keep marking it.
+     * @param heartbeat heartbeat of the stalled worker
+     * @return heartbeat of the new worker
+     */
+    public Heartbeat renew(Heartbeat heartbeat) {
+
+        Heartbeat renewed = new Heartbeat(heartbeat.name, heartbeat.stallTimeout, heartbeat.restart);
+        renewed.stalledSince = heartbeat.stalledSince;
+        renewed.lastRestart = heartbeat.lastRestart;
+        renewed.stallCount = heartbeat.stallCount;
+        renewed.lastRecoveryMillis = heartbeat.lastRecoveryMillis;
+        heartbeats.replaceAll(registered -> registered == heartbeat ? renewed : registered);
+        return renewed;
+
+    }
+
+    /**
+     * Stop watching a stage
+     * @param heartbeat heartbeat of the stage
+     */
+    public void unregister(Heartbeat heartbeat) {
+
+        heartbeats.remove(heartbeat);
+
+    }
+
+    /**
+     * Restart the stalled stages, called periodically
+     */
+    public void check() {
+
+        long now = System.nanoTime();
+        for (Heartbeat heartbeat : heartbeats) {
+            long stallTimeout = heartbeat.stallTimeout;
+            long workStarted = heartbeat.workStarted;
+            // A restarted stage gets a full timeout before being restarted again
+            if (workStarted != 0 && now - workStarted > stallTimeout
+                    && (heartbeat.lastRestart == 0 || now - heartbeat.lastRestart > stallTimeout)) {
+                if (heartbeat.stalledSince == 0) {
+                    heartbeat.stalledSince = now;
+                }
+                heartbeat.lastRestart = now;
+                heartbeat.workStarted = 0;
+                heartbeat.stallCount++;
+                logger.error(Constants.WATCHDOG_STALL, heartbeat.name, heartbeat.stallCount);
+                try {
+                    heartbeat.restart.accept(heartbeat);
+                } catch (RuntimeException e) {
+                    logger.error(e.getMessage());
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Progress tracker of a single stage
+     */
+    @Getter
+    public static class Heartbeat {
+
+        private final String name;
+        // Nanoseconds a unit of work may run before the stage is stalled
+        private final long stallTimeout;
+        private final Consumer<Heartbeat> restart;
+        // Start of the running unit of work, 0 when idle
+        private volatile long workStarted;
+        // First stall detected since the last completed unit of work, 0 when not stalled
+        private volatile long stalledSince;
+        private volatile long lastRestart;
+        private volatile int stallCount;
+        // Time from the stall detection to the first completed unit of work after the restart
+        private volatile long lastRecoveryMillis;
+
+        Heartbeat(String name, long stallTimeout, Consumer<Heartbeat> restart) {
+
+            this.name = name;
+            this.stallTimeout = stallTimeout;
+            this.restart = restart;
+
+        }
+
+        /**
+         * Mark the beginning of a unit of work
+         */
+        public void begin() {
+
+            workStarted = System.nanoTime();
+
+        }
+
+        /**
+         * Mark the end of a unit of work
+         */
+        public void end() {
+
+            workStarted = 0;
+            if (stalledSince != 0) {
+                lastRecoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stalledSince);
+                stalledSince = 0;
+                lastRestart = 0;
+                logger.info(Constants.WATCHDOG_RECOVERED, name, lastRecoveryMillis);
+            }
+
+        }
+
+    }
+
+}
@@ -23,8 +23,10 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.dpsoftware.LEDCoordinate;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -51,19 +53,72 @@ public class Configuration {
         DDUPL
     }
 
+    // XSHM uses the X11 MIT-SHM extension, the X server writes the screen straight into shared memory
     public enum LinuxCaptureMethod {
-        XIMAGESRC
+        XIMAGESRC,
+        XSHM
     }
 
     // Windows Desktop Duplication API
     private String captureMethod;
 
+    // Producers split every frame by screen edge and LED range instead of capturing the entire screen each
+    private boolean cooperativeCapture = false;
+
+    // CPU and WinAPI capture grab only the bands near the screen edges where the LEDs sample their colors
+    private boolean borderBandCapture = false;
+
+    // XIMAGESRC pipeline crops the screen edges natively and delivers only those to Java
+    private boolean gstreamerEdgeCrop = false;
+
+    // Linux only, capture a single window chosen by title or class instead of the entire desktop, empty for the desktop
+    private String captureWindow = "";
+
+    // Linux XSHM only, resample only the LEDs whose area has been damaged since the previous frame
+    private boolean damageTracking = false;
+
+    // Lower the capture rate while the screen is static, full rate is restored on the first change
+    private boolean adaptiveCaptureRate = false;
+
+    // Switch between the FULLSCREEN, the LETTERBOX and the PILLARBOX matrices when black bars are detected
+    private boolean autoDetectLetterbox = false;
+
+    // Benchmark the capture backends and the number of producers on startup, again when the hardware or the display changes
+    private boolean autoCalibrate = false;
+    // Hardware and display fingerprint of the last calibration, calibrated values are used only while it matches
+    private String calibrationFingerprint = "";
+    private int calibratedProducers = 0;
+
+    // Maximum process CPU usage in percent of the total CPU, producers are throttled to stay under it, 0 to disable
+    private int cpuBudget = 0;
+    // Linux only, CPU budget used while running on battery, 0 to use cpuBudget
+    private int batteryCpuBudget = 0;
+
     // Serial port to use, use AUTO for automatic port search
     private String serialPort;
+    // Last port found by the automatic port search, tried first on the next search
+    private String lastSerialPort = "";
 
     // Arduino/Microcontroller config
     private int dataRate = 500000;
 
+    // Bits per LED sent on the serial port, compact encodings trade color depth for framerate on slow links
+    public enum SerialEncoding {
+        AUTO,
+        RGB888,
+        RGB565,
+        RGB444
+    }
+
+    // Serial encoding supported by the microcontroller, AUTO uses the deepest encoding sustaining the target framerate
+    private String serialEncoding = SerialEncoding.RGB888.name();
+    // Framerate the serial link must sustain when the encoding is picked automatically
+    private int targetFramerate = 30;
+    // Spread the error of the compact encodings over time, every LED averages to its full depth color
+    private boolean dithering = true;
+    // Run length encode the frames sent on the serial port when it makes them smaller, the microcontroller must support it
+    private boolean serialCompression = false;
+
     // Default led matrix to use
     private String defaultLedMatrix;
 
@@ -77,6 +132,24 @@ public class Configuration {
     // LED strip orientation
     String orientation;
 
+    // Order of the color channels expected by the LED strip
+    public enum ColorOrder {
+        RGB,
+        RBG,
+        GRB,
+        GBR,
+        BRG,
+        BGR
+    }
+
+    // Physical wiring of the LED strip, the first physical LED shows the LED at this index of the matrix
+    private int ledOffset = 0;
+    // Physical LEDs not driven by the matrix, they are kept black
+    private List<Integer> skippedLeds = new ArrayList<>();
+    // Ranges of physical LEDs wired in the opposite direction, example: 10-20
+    private List<String> reversedSegments = new ArrayList<>();
+    private String colorOrder = ColorOrder.RGB.name();
+
     // used for Serial connection timeout
     private int timeout = 2000;
 
@@ -105,12 +178,45 @@ public class Configuration {
      * Constructor
      * @param fullScreenLedMatrix config matrix for LED strip
      * @param letterboxLedMatrix letterbox config matrix for LED strip
+     * @param pillarboxLedMatrix pillarbox config matrix for LED strip
      */
-    public Configuration(LinkedHashMap<Integer, LEDCoordinate> fullScreenLedMatrix, LinkedHashMap<Integer, LEDCoordinate> letterboxLedMatrix) {
+    public Configuration(LinkedHashMap<Integer, LEDCoordinate> fullScreenLedMatrix, LinkedHashMap<Integer, LEDCoordinate> letterboxLedMatrix,
+                         LinkedHashMap<Integer, LEDCoordinate> pillarboxLedMatrix) {
 
         this.ledMatrix = new HashMap<>();
         ledMatrix.put(Constants.FULLSCREEN, fullScreenLedMatrix);
         ledMatrix.put(Constants.LETTERBOX, letterboxLedMatrix);
+        ledMatrix.put(Constants.PILLARBOX, pillarboxLedMatrix);
+
+    }
+
+    /**
+     * Copy the settings that are not edited in the settings dialog
+     * @param from configuration to copy the settings from
+     */
+    public void copyAdvancedSettings(Configuration from) {
+
+        cooperativeCapture = from.cooperativeCapture;
+        borderBandCapture = from.borderBandCapture;
+        gstreamerEdgeCrop = from.gstreamerEdgeCrop;
+        captureWindow = from.captureWindow;
+        damageTracking = from.damageTracking;
+        adaptiveCaptureRate = from.adaptiveCaptureRate;
+        autoDetectLetterbox = from.autoDetectLetterbox;
+        autoCalibrate = from.autoCalibrate;
+        calibrationFingerprint = from.calibrationFingerprint;
+        calibratedProducers = from.calibratedProducers;
+        cpuBudget = from.cpuBudget;
+        batteryCpuBudget = from.batteryCpuBudget;
+        ledOffset = from.ledOffset;
+        skippedLeds = from.skippedLeds;
+        reversedSegments = from.reversedSegments;
+        colorOrder = from.colorOrder;
+        lastSerialPort = from.lastSerialPort;
+        serialEncoding = from.serialEncoding;
+        targetFramerate = from.targetFramerate;
+        dithering = from.dithering;
+        serialCompression = from.serialCompression;
 
     }
 
@@ -26,7 +26,8 @@ public class Constants {
 	public static final String FIREFLY_LUCIFERIN = "Firefly Luciferin";
 	public static final String FULLSCREEN = "FullScreen";
 	public static final String LETTERBOX = "Letterbox";
-	public static final String SPAWNING_ROBOTS = "Spawning new robot for capture";
+	public static final String PILLARBOX = "Pillarbox";
+	public static final String SPAWNING_CAPTURE_CONTEXT = "Spawning new capture context";
 	public static final String SERIAL_PORT_IN_USE = "Serial Port in use: ";
 
 	// Upgrade
@@ -113,8 +114,6 @@ public class Constants {
 	public static final String CAPTURE_MODE_CHANGED = "Capture mode changed to ";
 	public static final String GITHUB_URL = "https://github.com/sblantipodi/firefly_luciferin";
 	public static final String SERIAL_PORT_AUTO = "AUTO";
-	public static final String SERIAL_PORT_COM = "COM";
-	public static final String SERIAL_PORT_TTY = "/dev/ttyUSB";
 	public static final String CLOCKWISE = "Clockwise";
 	public static final String ANTICLOCKWISE = "Anticlockwise";
 	public static final String VERSION = "VERSION";
@@ -137,7 +136,7 @@ public class Constants {
     public static final String TOOLTIP_SCALING = "OS scaling feature, you should not change this setting";
     public static final String TOOLTIP_GAMMA = "Smaller values results in brighter LEDs but less accurate colors. 2.2 is generally good for SDR contents, 6.0 is generally good for HDR contents.";
     public static final String TOOLTIP_CAPTUREMETHOD = "If you have a GPU, Desktop Duplication API (DDUPL) is faster than other methods";
-    public static final String TOOLTIP_LINUXCAPTUREMETHOD = "If you have a GPU, Desktop Duplication API (DDUPL) is faster than other methods";
+    public static final String TOOLTIP_LINUXCAPTUREMETHOD = "XIMAGESRC captures the screen using GStreamer, XSHM reads it straight from X11 shared memory and doesn't need GStreamer";
     public static final String TOOLTIP_NUMBEROFTHREADS = "1 thread is enough when using DDUPL, 3 or more threads are recommended for other capture methods";
     public static final String TOOLTIP_SERIALPORT = "AUTO detects first serial port available, change it if you have more than one serial port available";
     public static final String TOOLTIP_ASPECTRATIO = "LetterBox is recommended for films, you can change this option later";
@@ -165,12 +164,79 @@ public class Constants {
 	public static final String BYTE_ORDER_RGB = "format=xRGB";
 	public static final String WIDTH = "width";
 	public static final String HEIGHT = "height";
+	public static final String TOP = "top";
+	public static final String LEFT = "left";
+	public static final String RIGHT = "right";
+	public static final String BOTTOM = "bottom";
 	public static final String GSTREAMER_PATH = "/gstreamer/1.0/x86_64/bin";
 	public static final String PATH = "path";
 	public static final String JNA_LIB_PATH = "jna.library.path";
 	public static final String SCREEN_GRABBER = "ScreenGrabber";
 	public static final String GSTREAMER_PIPELINE_WINDOWS = "dxgiscreencapsrc ! videoscale ! videoconvert";
 	public static final String GSTREAMER_PIPELINE_LINUX = "ximagesrc ! videoscale ! videoconvert";
+	public static final String GSTREAMER_TEE = "tee";
+	public static final String GSTREAMER_EDGE_BRANCH = "queue leaky=downstream max-size-buffers=1 ! videocrop name=videocrop%d top=%d left=%d right=%d bottom=%d ! videoscale ! video/x-raw,width=%d,height=%d";
+	public static final int GSTREAMER_EDGE_SCALE = 2;
+	public static final String GSTREAMER_PIPELINE_LINUX_WINDOW = "ximagesrc xid=%d ! videoscale ! videoconvert";
+	public static final String THREAD_CAPTURE = "capture";
+	public static final String THREAD_OUTPUT = "output";
+	public static final String THREAD_HOUSEKEEPING = "housekeeping";
+	public static final String THREAD_SERIAL = "serial";
+	public static final long SERIAL_STATS_WINDOW = 1;
+	public static final long SERIAL_WRITE_TIMEOUT_MILLIS = 1000;
+	public static final int ADALIGHT_HEADER_SIZE = 6;
+	public static final byte ADALIGHT_MAGIC_RGB888 = 'a';
+	public static final byte ADALIGHT_MAGIC_RGB565 = '5';
+	public static final byte ADALIGHT_MAGIC_RGB444 = '4';
+	public static final byte ADALIGHT_MAGIC_COMPRESSED = 'z';
+	public static final int ADALIGHT_COMPRESSED_HEADER_SIZE = 9;
+	public static final int RLE_MAX_LITERAL = 128;
+	public static final int RLE_MAX_REPEAT = 129;
+	public static final int RLE_REPEAT_OFFSET = 126;
+	public static final long SERIAL_RECONNECT_PERIOD = 250;
+	public static final long SERIAL_RESCAN_MAX_DELAY = 8000;
+	public static final String SYSFS_TTY_PATH = "/sys/class/tty";
+	public static final String SYSFS_DEVICE = "device";
+	public static final String SYSFS_ID_VENDOR = "idVendor";
+	public static final String SYSFS_ID_PRODUCT = "idProduct";
+	public static final int SYSFS_USB_DEPTH = 4;
+	public static final String USB_ID_SEPARATOR = ":";
+	public static final String THREAD_EMULATOR = "emulator";
+	public static final String PTY_PATH = "/dev/pts/";
+	public static final int PTY_O_RDWR = 02;
+	public static final int PTY_O_NOCTTY = 0400;
+	public static final int PTY_TCSANOW = 0;
+	public static final int PTY_TERMIOS_SIZE = 256;
+	public static final int EMULATOR_BUFFER_SIZE = 4096;
+	public static final int SERIAL_BENCHMARK_LEDS = 300;
+	public static final int SERIAL_BENCHMARK_DATA_RATE = 500000;
+	public static final int SERIAL_BENCHMARK_SECONDS = 3;
+	public static final long SERIAL_BENCHMARK_WARMUP_MILLIS = 1000;
+	public static final String SERIAL_BENCHMARK_MOVIE = "movie";
+	public static final String SERIAL_BENCHMARK_LETTERBOX = "letterbox";
+	public static final String THREAD_CALIBRATION = "calibration";
+	public static final String GSTREAMER_CALIBRATION_SINK = "CalibrationSink";
+	public static final int CALIBRATION_TARGET_FPS = 30;
+	public static final long CALIBRATION_MILLIS = 1000;
+	public static final String CALIBRATION_FINGERPRINT_SEPARATOR = "|";
+	public static final String OS_NAME = "os.name";
+	public static final String OS_ARCH = "os.arch";
+	public static final long MQTT_ACK_TIMEOUT_MILLIS = 1000;
+	public static final long WATCHDOG_PERIOD = 1;
+	public static final long CONFIG_WATCH_PERIOD = 1;
+	public static final long WATCHDOG_STALL_MILLIS = 5000;
+	public static final long GOVERNOR_PERIOD = 2;
+	public static final int GOVERNOR_MAX_RATE_DIVIDER = 8;
+	public static final double GOVERNOR_RELAX_RATIO = 0.7;
+	public static final String POWER_SUPPLY_PATH = "/sys/class/power_supply";
+	public static final String POWER_SUPPLY_TYPE = "type";
+	public static final String POWER_SUPPLY_STATUS = "status";
+	public static final String POWER_SUPPLY_BATTERY = "Battery";
+	public static final String POWER_SUPPLY_DISCHARGING = "Discharging";
+	public static final int GEOMETRY_CHECK_FRAMES = 40;
+	public static final int IDLE_FRAMES = 80;
+	public static final int IDLE_RATE_DIVIDER = 10;
+	public static final String GSTREAMER_VIDEOCROP = "videocrop";
 
 	// Exceptions
 	public static final String WIN32_EXCEPTION = "Win32 Exception.";
@@ -180,6 +246,49 @@ public class Constants {
 	public static final String DEVICE_CONTEXT_RELEASE_EXCEPTION = "Device context did not release properly.";
 	public static final String WINDOWS_EXCEPTION = "Window width and/or height were 0 even though GetWindowRect did not appear to fail.";
 	public static final String CANT_FIND_GSTREAMER = "Cant' find GStreamer";
+	public static final String X11_CANT_OPEN_DISPLAY = "Can't open X11 display.";
+	public static final String X11_NO_SHM = "X11 MIT-SHM extension is not available.";
+	public static final String X11_SHM_GET_IMAGE_FAILED = "XShmGetImage failed.";
+	public static final String X11_SHM_CREATE_IMAGE_FAILED = "XShmCreateImage failed.";
+	public static final String X11_SHM_SEGMENT_FAILED = "Can't allocate the shared memory segment.";
+	public static final String X11_SHM_ATTACH_FAILED = "XShmAttach failed.";
+	public static final String X11_SHM_FALLBACK = "MIT-SHM capture not available, capturing with CPU: {}";
+	public static final String X11_NO_DAMAGE = "XDamage extension not available.";
+	public static final String X11_ERROR = "X11 error {} on request {}";
+	public static final String CALIBRATION_STARTED = "Calibrating capture backends, this takes a few seconds";
+	public static final String CALIBRATION_RESULT = "Calibration {} with {} producers: {} FPS";
+	public static final String CALIBRATION_DONE = "Calibration done, using {} with {} producers: {} FPS";
+	public static final String CALIBRATION_FAILED = "Calibration failed, no capture backend works, using the configured producers";
+	public static final String GOVERNOR_STATUS = "CPU load {}% budget {}%, active producers {}, rate divider {}";
+	public static final String PLAN_CACHE_SEPARATOR = "|";
+	public static final int PLAN_CACHE_SIZE = 32;
+	public static final String CONFIG_RELOADED = "Configuration file reloaded";
+	public static final String CONFIG_RESTART_REQUIRED = "Some of the changed settings will be applied on the next restart";
+	public static final String SEGMENT_SEPARATOR = "-";
+	public static final String INVALID_SEGMENT = "Invalid reversed segment, use first-last: ";
+	public static final String INVALID_COLOR_ORDER = "Invalid color order, using RGB: ";
+	public static final String INVALID_SERIAL_ENCODING = "Invalid serial encoding, using RGB888: ";
+	public static final String SERIAL_ENCODING_SELECTED = "Serial encoding {} selected for {} FPS at {} bit/s";
+	public static final String CAPTURE_STATE = "Capture {} -> {}";
+	public static final String MQTT_ACK_TIMEOUT = "State message not acknowledged, going on";
+	public static final String WATCHDOG_STALL = "{} stalled, restarting it ({} stalls)";
+	public static final String WATCHDOG_RECOVERED = "{} recovered in {} ms";
+	public static final String WATCHDOG_NO_STALLS = "No stalls";
+	public static final String WATCHDOG_STALL_STATS = "%s stalled %d times, recovered in %d ms";
+	public static final String WATCHDOG_STALL_STATS_SEPARATOR = ", ";
+	public static final String CONSUMER_RESTARTED = "Consumer restarted";
+	public static final String SERIAL_WRITE_ERROR = "Serial write failed: ";
+	public static final String SERIAL_DISCONNECTED = "Serial port disconnected, waiting for it to come back: ";
+	public static final String SERIAL_RECONNECTED = "Serial port reconnected: ";
+	public static final String PTY_OPEN_FAILED = "Can't open a pseudo terminal";
+	public static final String EMULATOR_READY = "Adalight emulator listening on {}, set it as serialPort (device limited to {} FPS, {} bit/s)";
+	public static final String EMULATOR_STATS = "Received {} FPS, {} LEDs {}, {} KB/s, {} corrupted frames";
+	public static final String SERIAL_BENCHMARK_STARTED = "Benchmarking {} LEDs at {} bit/s, {} seconds for every encoding";
+	public static final String SERIAL_BENCHMARK_RESULT = "%-9s %-6s compression %-5s: %6.1f FPS received, %6.1f FPS link limit, %d bytes per frame, %d corrupted frames";
+	public static final String CONSUMER_SERIAL_STATS = "Consuming @ %s FPS (%.1f KB/s, %.0f%% of the link)";
+	public static final String CONSUMER_COMPRESSION_STATS = " compressed %.2fx, %.0f%% of the frames, %.0f us to encode";
+	public static final String CAPTURE_GEOMETRY_CHANGED = "Display geometry changed, rescaling LED coordinates";
+	public static final String CAPTURE_WINDOW_NOT_FOUND = "Window to capture not found, capturing the entire screen: ";
 	public static final String SOMETHING_WENT_WRONG = "Something went wrong.";
 
 	// Image processor
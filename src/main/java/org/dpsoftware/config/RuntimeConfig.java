@@ -0,0 +1,144 @@
+/*
+  RuntimeConfig.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.output.FrameEncoder;
+import org.dpsoftware.output.OutputPermutation;
+
+/**
+ * Immutable snapshot of the settings read on the hot paths, compiled from a {@link Configuration}.
+ * Producers and consumer read the snapshot in use once per frame, a new snapshot is published
+ * as a whole when the configuration file changes, a frame never mixes settings from two snapshots.
+ * The snapshot compiles a private copy of the configuration, later changes to the configuration in use don't leak into it.
+ */
+@Getter
+public class RuntimeConfig {
+
+    // Copies the configuration through its yaml properties
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Copy of the configuration this snapshot has been compiled from, never modified
+    private final Configuration configuration;
+    // Capture method in use, compiled from its name
+    private final Configuration.WindowsCaptureMethod windowsCaptureMethod;
+    private final Configuration.LinuxCaptureMethod linuxCaptureMethod;
+    // Gamma corrected value of every color channel value
+    private final int[] gammaTable;
+    // Physical wiring of the LED strip
+    private final OutputPermutation outputPermutation;
+    // Serial encoding, AUTO is resolved against the data rate and the target framerate
+    private final Configuration.SerialEncoding serialEncoding;
+    // Stream colors to the MQTT stream topic instead of the serial port
+    private final boolean mqttStream;
+    // Settings the capture regions and the sampling plans are compiled from, equal for snapshots with the same geometry
+    private final String captureGeometry;
+
+    /**
+     * Constructor
+     * @param configuration configuration to compile
+     */
+    private RuntimeConfig(Configuration configuration) {
+
+        this.configuration = configuration;
+        this.windowsCaptureMethod = getEnum(Configuration.WindowsCaptureMethod.class, configuration.getCaptureMethod());
+        this.linuxCaptureMethod = getEnum(Configuration.LinuxCaptureMethod.class, configuration.getCaptureMethod());
+        this.gammaTable = new int[256];
+        for (int color = 0; color < gammaTable.length; color++) {
+            gammaTable[color] = (int) (255.0 * Math.pow((color / 255.0), configuration.getGamma()));
+        }
+        this.outputPermutation = OutputPermutation.compile(configuration,
+                configuration.getLedMatrixInUse(configuration.getDefaultLedMatrix()).size());
+        this.mqttStream = configuration.isMqttEnable() && configuration.isMqttStream();
+        this.serialEncoding = mqttStream ? Configuration.SerialEncoding.RGB888
+                : FrameEncoder.selectEncoding(configuration, outputPermutation.getLedNumber());
+        this.captureGeometry = getCaptureGeometry(configuration);
+
+    }
+
+    /**
+     * Compile a copy of a configuration
+     * @param configuration configuration to compile
+     * @return snapshot
+     */
+    public static RuntimeConfig compile(Configuration configuration) {
+
+        return new RuntimeConfig(MAPPER.convertValue(configuration, Configuration.class));
+
+    }
+
+    /**
+     * Check if capture runs through a GStreamer pipeline
+     * @return true for DDUPL and XIMAGESRC
+     */
+    public boolean isGStreamerCapture() {
+
+        return windowsCaptureMethod == Configuration.WindowsCaptureMethod.DDUPL
+                || linuxCaptureMethod == Configuration.LinuxCaptureMethod.XIMAGESRC;
+
+    }
+
+    /**
+     * Describe the settings capture regions and sampling plans depend on, LED coordinates included
+     * @param configuration configuration to describe
+     * @return geometry description, equal descriptions compile to the same regions and plans
+     */
+    static String getCaptureGeometry(Configuration configuration) {
+
+        StringBuilder geometry = new StringBuilder();
+        geometry.append(configuration.getScreenResX()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.getScreenResY()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.getOsScaling()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.isBorderBandCapture()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.isDamageTracking()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.getBottomRightLed()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.getRightLed()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.getTopLed()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.getLeftLed()).append(Constants.PLAN_CACHE_SEPARATOR)
+                .append(configuration.getBottomLeftLed());
+        configuration.getLedMatrix().forEach((ledMatrixKey, ledMatrix) -> {
+            geometry.append(Constants.PLAN_CACHE_SEPARATOR).append(ledMatrixKey);
+            for (LEDCoordinate coordinate : ledMatrix.values()) {
+                geometry.append(Constants.PLAN_CACHE_SEPARATOR).append(coordinate.getX()).append(',').append(coordinate.getY());
+            }
+        });
+        return geometry.toString();
+
+    }
+
+    /**
+     * Enum constant from its name
+     * @param enumClass enum class
+     * @param name constant name
+     * @param <E> enum type
+     * @return constant, null if the name doesn't belong to the enum
+     */
+    static <E extends Enum<E>> E getEnum(Class<E> enumClass, String name) {
+
+        try {
+            return name != null ? Enum.valueOf(enumClass, name) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+  AdaptiveCaptureRate.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import java.awt.*;
+
+/**
+ * Step the capture rate down while the screen is static.
+ * Every frame is reduced to a fingerprint of its LED colors, after a number of frames with the same
+ * fingerprint producers capture only one tick every few, the first frame that differs restores the full rate.
+ * An instance is shared by all the producers of a grabber.
+ */
+public class AdaptiveCaptureRate {
+
+    // Unchanged frames before stepping down to the idle rate
+    private final int idleFrames;
+    // While idle, capture one tick every idleDivider ticks
+    private final int idleDivider;
+    private int fingerprint;
+    private volatile int unchangedFrames;
+
+    /**
+     * Constructor
+     * @param idleFrames unchanged frames before stepping down to the idle rate
+     * @param idleDivider while idle, capture one tick every idleDivider ticks
+     */
+    public AdaptiveCaptureRate(int idleFrames, int idleDivider) {
+
+        this.idleFrames = idleFrames;
+        this.idleDivider = idleDivider;
+
+    }
+
+    /**
+     * Check if a producer should capture on this tick
+     * @param tick producer tick counter
+     * @return true when running at full rate or when the tick falls on the idle rate
+     */
+    public boolean shouldCapture(long tick) {
+
+        return !isIdle() || tick % idleDivider == 0;
+
+    }
+
+    /**
+     * Check if the screen is considered static
+     * @return true while running at the idle rate
+     */
+    public boolean isIdle() {
+
+        return unchangedFrames >= idleFrames;
+
+    }
+
+    /**
+     * Feed a frame to the detector
+     * @param leds frame produced by a producer
+     */
+    public synchronized void update(Color[] leds) {
+
+        int frameFingerprint = 1;
+        for (Color color : leds) {
+            frameFingerprint = 31 * frameFingerprint + (color != null ? color.getRGB() : 0);
+        }
+        if (frameFingerprint == fingerprint) {
+            if (unchangedFrames < idleFrames) {
+                unchangedFrames++;
+            }
+        } else {
+            fingerprint = frameFingerprint;
+            unchangedFrames = 0;
+        }
+
+    }
+
+}
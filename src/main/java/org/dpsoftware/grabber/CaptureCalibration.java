@@ -0,0 +1,246 @@
+/*
+  CaptureCalibration.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import com.sun.jna.Platform;
+import org.dpsoftware.ConfigWatcher;
+import org.dpsoftware.ExecutorManager;
+import org.dpsoftware.StorageManager;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.config.RuntimeConfig;
+import org.freedesktop.gstreamer.*;
+import org.freedesktop.gstreamer.elements.AppSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark every capture backend available on this platform with an increasing number of producers and keep
+ * the cheapest configuration that reaches the target framerate. The result is stored in the configuration file together
+ * with a fingerprint of the hardware and of the display, calibration runs again only when the fingerprint changes.
+ * GStreamer backends run a single pipeline, they are measured once with the frames delivered by the pipeline.
+ * Benchmarks capture with a private copy of the configuration without damage tracking, damage tracking skips the
+ * resampling being measured. Calibration runs on its own thread, capture waits for it to be done.
+ */
+public class CaptureCalibration {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureCalibration.class);
+
+    /**
+     * Calibrate if the hardware or the display changed since the last calibration
+     * @param config configuration in use, updated with the calibrated backend and producers
+     */
+    public static void calibrateIfNeeded(Configuration config) {
+
+        String fingerprint = getFingerprint(config);
+        if (fingerprint.equals(config.getCalibrationFingerprint()) && config.getCalibratedProducers() > 0) {
+            return;
+        }
+        logger.info(Constants.CALIBRATION_STARTED);
+        Configuration benchmarkConfig = RuntimeConfig.compile(config).getConfiguration();
+        benchmarkConfig.setDamageTracking(false);
+        String bestBackend = null;
+        int bestProducers = 0;
+        float bestFps = 0;
+        for (String backend : getBackends()) {
+            benchmarkConfig.setCaptureMethod(backend);
+            RuntimeConfig benchmarkSnapshot = RuntimeConfig.compile(benchmarkConfig);
+            for (int producers = 1; producers <= Runtime.getRuntime().availableProcessors(); producers *= 2) {
+                float fps = benchmarkSnapshot.isGStreamerCapture() ? benchmarkPipeline() : benchmark(benchmarkSnapshot, producers);
+                logger.info(Constants.CALIBRATION_RESULT, backend, producers, fps);
+                boolean reachesTarget = fps >= Constants.CALIBRATION_TARGET_FPS;
+                boolean bestReachesTarget = bestFps >= Constants.CALIBRATION_TARGET_FPS;
+                // Once the target is reached prefer fewer producers, below the target prefer more frames
+                if (bestBackend == null || (reachesTarget && (!bestReachesTarget || producers < bestProducers))
+                        || (!reachesTarget && !bestReachesTarget && fps > bestFps)) {
+                    bestBackend = backend;
+                    bestProducers = producers;
+                    bestFps = fps;
+                }
+                if (reachesTarget || benchmarkSnapshot.isGStreamerCapture()) {
+                    // More producers don't speed up a pipeline
+                    break;
+                }
+            }
+        }
+        if (bestFps == 0) {
+            // No backend works, keep the configured backend and fall back to the configured producers
+            logger.error(Constants.CALIBRATION_FAILED);
+            if (config.getCalibratedProducers() > 0) {
+                config.setCalibratedProducers(0);
+                config.setCalibrationFingerprint("");
+                writeConfig(config);
+            }
+            return;
+        }
+        config.setCaptureMethod(bestBackend);
+        config.setCalibratedProducers(bestProducers);
+        config.setCalibrationFingerprint(fingerprint);
+        logger.info(Constants.CALIBRATION_DONE, bestBackend, bestProducers, bestFps);
+        writeConfig(config);
+
+    }
+
+    /**
+     * Store the calibration results, the configuration watcher doesn't reload them
+     * @param config calibrated configuration
+     */
+    static void writeConfig(Configuration config) {
+
+        try {
+            new StorageManager().writeConfig(config);
+            ConfigWatcher.markOwnWrite();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+
+    }
+
+    /**
+     * Capture backends available on this platform
+     * @return capture methods
+     */
+    static List<String> getBackends() {
+
+        List<String> backends = new ArrayList<>();
+        if (Platform.isWindows()) {
+            backends.add(Configuration.WindowsCaptureMethod.WinAPI.name());
+            backends.add(Configuration.WindowsCaptureMethod.CPU.name());
+            backends.add(Configuration.WindowsCaptureMethod.DDUPL.name());
+        } else if (Platform.isLinux()) {
+            backends.add(Configuration.LinuxCaptureMethod.XSHM.name());
+            backends.add(Configuration.LinuxCaptureMethod.XIMAGESRC.name());
+        }
+        return backends;
+
+    }
+
+    /**
+     * Run producers capturing as fast as they can
+     * @param benchmarkSnapshot private snapshot with the capture method to benchmark
+     * @param producers number of producers
+     * @return frames per second produced
+     */
+    static float benchmark(RuntimeConfig benchmarkSnapshot, int producers) {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(producers, ExecutorManager.namedThreadFactory(Constants.THREAD_CALIBRATION));
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger frames = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < producers; i++) {
+                CaptureContext captureContext = CaptureContext.create(benchmarkSnapshot);
+                futures.add(executorService.submit(() -> {
+                    try {
+                        while (running.get()) {
+                            captureContext.getColors();
+                            frames.incrementAndGet();
+                        }
+                    } finally {
+                        captureContext.close();
+                    }
+                }));
+            }
+            TimeUnit.MILLISECONDS.sleep(Constants.CALIBRATION_MILLIS);
+            running.set(false);
+            float fps = (frames.get() * 1000F) / Constants.CALIBRATION_MILLIS;
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return fps;
+        } catch (AWTException | RuntimeException | ExecutionException e) {
+            // Backend not usable on this machine
+            logger.error(e.getMessage());
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            running.set(false);
+            executorService.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Run the screen pipeline of this platform and count the frames it delivers
+     * @return frames per second delivered
+     */
+    static float benchmarkPipeline() {
+
+        Pipeline pipeline = null;
+        try {
+            new ImageProcessor().initGStreamer();
+            AtomicInteger frames = new AtomicInteger();
+            AppSink appSink = new AppSink(Constants.GSTREAMER_CALIBRATION_SINK);
+            appSink.set(Constants.EMIT_SIGNALS, true);
+            appSink.setCaps(GStreamerGrabber.getCaps());
+            appSink.connect((AppSink.NEW_SAMPLE) element -> {
+                element.pullSample().dispose();
+                frames.incrementAndGet();
+                return FlowReturn.OK;
+            });
+            Bin bin = Gst.parseBinFromDescription(Platform.isWindows() ? Constants.GSTREAMER_PIPELINE_WINDOWS
+                    : Constants.GSTREAMER_PIPELINE_LINUX, true);
+            pipeline = new Pipeline();
+            pipeline.addMany(bin, appSink);
+            Pipeline.linkMany(bin, appSink);
+            pipeline.play();
+            TimeUnit.MILLISECONDS.sleep(Constants.CALIBRATION_MILLIS);
+            return (frames.get() * 1000F) / Constants.CALIBRATION_MILLIS;
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            // GStreamer not installed or the source not usable on this machine
+            logger.error(e.getMessage());
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            if (pipeline != null) {
+                pipeline.stop();
+                pipeline.dispose();
+            }
+        }
+
+    }
+
+    /**
+     * Fingerprint of the hardware and of the display, calibration is valid only for the same fingerprint
+     * @param config configuration in use
+     * @return fingerprint
+     */
+    static String getFingerprint(Configuration config) {
+
+        Dimension displaySize = ImageProcessor.getDisplaySize();
+        return String.join(Constants.CALIBRATION_FINGERPRINT_SEPARATOR, System.getProperty(Constants.OS_NAME),
+                System.getProperty(Constants.OS_ARCH), String.valueOf(Runtime.getRuntime().availableProcessors()),
+                displaySize.width + "x" + displaySize.height, String.valueOf(config.getOsScaling()),
+                String.valueOf(config.getLedMatrixInUse(config.getDefaultLedMatrix()).size()));
+
+    }
+
+}
@@ -0,0 +1,603 @@
+/*
+  CaptureContext.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import com.sun.jna.Platform;
+import com.sun.jna.platform.unix.X11;
+import com.sun.jna.platform.win32.User32;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.dpsoftware.config.RuntimeConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Capture context owned by a single producer.
+ * Robot handle, screen buffer and sampling plan are confined to the producer that owns the context
+ * and reused frame to frame, concurrent producers never mix pixels from different captures.
+ */
+public class CaptureContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureContext.class);
+
+    // Compiled plans shared by every context, capture restarts don't recompile the LED matrices.
+    // Plans are keyed by the settings they are compiled from, the cache is bounded and emptied when full
+    private static final Map<String, SamplingPlan> PLAN_CACHE = new ConcurrentHashMap<>();
+
+    // AWT Robot used by the CPU capture method, null when using WinAPI, created when MIT-SHM is not available
+    private Robot robot;
+    // Custom JNA Class for GDI32Util, one for every capture region, null when using CPU
+    private CustomGDI32Util[] customGDI32Utils;
+    // MIT-SHM grabbers, one for every capture region, null when not using XSHM
+    private X11ShmGrabber[] x11ShmGrabbers;
+    // Number of LEDs in the frame
+    private final int ledNumber;
+    // Screen areas captured by this context, every region has a plan relative to its origin
+    private List<CaptureRegion> captureRegions;
+    // Display resolution the capture regions have been computed for
+    private Dimension displaySize;
+    // True when capturing with MIT-SHM
+    private boolean x11Shm;
+    // Window captured by XSHM, null when capturing the entire screen
+    private X11.Window captureWindow;
+    private Dimension captureWindowSize;
+    private int from;
+    private int to;
+    private int frameCounter;
+    // Matrix the capture regions have been compiled for
+    private String ledMatrixName;
+    // Regions compiled for every matrix, null when the letterbox detector is not in use
+    private Map<String, List<CaptureRegion>> precompiledRegions;
+    // XDamage tracker used to resample only the changed LEDs, null when damage tracking is disabled
+    private X11DamageTracker damageTracker;
+    // Last frame produced by getColors(), LEDs outside the damaged areas keep these colors
+    private Color[] lastLeds;
+    // True when every LED has been sampled once since the damage tracker was created
+    private boolean damageBaseline;
+    // Pixel buffer used when the captured image is not backed by an int array
+    private int[] pixels = new int[0];
+    // True when the context has been closed, frames are not captured anymore
+    private boolean closed;
+    // Runtime configuration the capture regions have been compiled with
+    private RuntimeConfig runtimeConfig;
+    // Snapshot used for the whole life of the context, null to follow the published snapshot
+    private RuntimeConfig fixedConfig;
+
+    /**
+     * Constructor
+     * @param robot AWT Robot instance, null when not capturing with CPU
+     * @param customGDI32Utils GDI32 utilities aligned with the capture regions, null when capturing with a Robot
+     * @param x11ShmGrabbers MIT-SHM grabbers aligned with the capture regions, null when not capturing with XSHM
+     * @param ledNumber number of LEDs in the frame
+     * @param captureRegions screen areas to capture
+     */
+    public CaptureContext(Robot robot, CustomGDI32Util[] customGDI32Utils, X11ShmGrabber[] x11ShmGrabbers, int ledNumber,
+                          List<CaptureRegion> captureRegions) {
+
+        this.robot = robot;
+        this.customGDI32Utils = customGDI32Utils;
+        this.x11ShmGrabbers = x11ShmGrabbers;
+        this.ledNumber = ledNumber;
+        this.captureRegions = captureRegions;
+
+    }
+
+    /**
+     * Create a capture context that samples every LED
+     * @return a new capture context, it must not be shared between threads
+     * @throws AWTException GUI exception
+     */
+    public static CaptureContext create() throws AWTException {
+
+        Configuration config = FireflyLuciferin.config;
+        return create(0, config.getLedMatrixInUse(config.getDefaultLedMatrix()).size());
+
+    }
+
+    /**
+     * Create a capture context that samples a range of LEDs.
+     * When using a Robot only the screen area around every edge of the range is captured.
+     * @param from first LED index, inclusive
+     * @param to last LED index, exclusive
+     * @return a new capture context, it must not be shared between threads
+     * @throws AWTException GUI exception
+     */
+    public static CaptureContext create(int from, int to) throws AWTException {
+
+        return create(null, from, to);
+
+    }
+
+    /**
+     * Create a capture context that samples every LED with a private configuration, used by calibration
+     * @param fixedConfig snapshot used for the whole life of the context, changes to the configuration in use are ignored
+     * @return a new capture context, it must not be shared between threads
+     * @throws AWTException GUI exception
+     */
+    public static CaptureContext create(RuntimeConfig fixedConfig) throws AWTException {
+
+        Configuration config = fixedConfig.getConfiguration();
+        return create(fixedConfig, 0, config.getLedMatrixInUse(config.getDefaultLedMatrix()).size());
+
+    }
+
+    /**
+     * Create a capture context that samples a range of LEDs
+     * @param fixedConfig snapshot used for the whole life of the context, null to follow the published snapshot
+     * @param from first LED index, inclusive
+     * @param to last LED index, exclusive
+     * @return a new capture context, it must not be shared between threads
+     * @throws AWTException GUI exception
+     */
+    static CaptureContext create(RuntimeConfig fixedConfig, int from, int to) throws AWTException {
+
+        Configuration config = fixedConfig != null ? fixedConfig.getConfiguration() : FireflyLuciferin.config;
+        int ledNumber = config.getLedMatrixInUse(config.getDefaultLedMatrix()).size();
+        CaptureContext captureContext;
+        if (config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.WinAPI.name()) && Platform.isWindows()) {
+            captureContext = new CaptureContext(null, null, null, ledNumber, new ArrayList<>());
+        } else if (config.getCaptureMethod().equals(Configuration.LinuxCaptureMethod.XSHM.name()) && Platform.isLinux()) {
+            captureContext = new CaptureContext(null, null, null, ledNumber, new ArrayList<>());
+            captureContext.x11Shm = true;
+            if (!config.getCaptureWindow().isEmpty()) {
+                captureContext.captureWindow = X11WindowFinder.findWindow(config.getCaptureWindow());
+                if (captureContext.captureWindow == null) {
+                    logger.error(Constants.CAPTURE_WINDOW_NOT_FOUND + config.getCaptureWindow());
+                }
+            }
+        } else {
+            captureContext = new CaptureContext(new Robot(), null, null, ledNumber, new ArrayList<>());
+        }
+        captureContext.from = from;
+        captureContext.to = to;
+        captureContext.fixedConfig = fixedConfig;
+        captureContext.open();
+        return captureContext;
+
+    }
+
+    /**
+     * Compile the sampling plan and allocate the capture resources for the current display geometry.
+     * LED coordinates are configured for screenResX/screenResY, they are mapped proportionally
+     * into the current display resolution or into the captured window geometry.
+     */
+    void open() {
+
+        runtimeConfig = getLatestConfig();
+        Configuration config = runtimeConfig.getConfiguration();
+        ledMatrixName = FireflyLuciferin.ledMatrixInUse;
+        boolean fullFrame = from == 0 && to == ledNumber;
+        displaySize = ImageProcessor.getDisplaySize();
+        // WinAPI and X11 capture physical pixels, Robot captures logical pixels
+        int osScaling = robot != null ? config.getOsScaling() : 100;
+        Rectangle displayRect = new Rectangle((displaySize.width * 100) / osScaling, (displaySize.height * 100) / osScaling);
+        Rectangle screenRect = displayRect;
+        if (x11Shm) {
+            captureWindowSize = captureWindow != null ? X11WindowFinder.getSize(captureWindow) : new Dimension();
+            if (captureWindowSize.width > 0 && captureWindowSize.height > 0) {
+                screenRect = new Rectangle(captureWindowSize);
+            } else {
+                captureWindow = null;
+            }
+        }
+        SamplingPlan samplingPlan = compilePlan(ledMatrixName, osScaling, displayRect, screenRect);
+        List<CaptureRegion> regions = new ArrayList<>();
+        if (x11Shm) {
+            addCaptureRegions(regions, config, samplingPlan, screenRect, fullFrame, from, to);
+            X11ShmGrabber[] grabbers = new X11ShmGrabber[regions.size()];
+            try {
+                for (int i = 0; i < grabbers.length; i++) {
+                    grabbers[i] = new X11ShmGrabber(null, captureWindow, regions.get(i).getRect());
+                }
+            } catch (IllegalStateException e) {
+                // A remote display or no shared memory left, capture the whole screen with a Robot instead
+                logger.error(Constants.X11_SHM_FALLBACK, e.getMessage());
+                for (X11ShmGrabber grabber : grabbers) {
+                    if (grabber != null) {
+                        grabber.close();
+                    }
+                }
+                fallBackToRobot();
+                open();
+                return;
+            }
+            x11ShmGrabbers = grabbers;
+            if (config.isDamageTracking()) {
+                damageTracker = new X11DamageTracker(null, captureWindow);
+                damageBaseline = false;
+            }
+        } else if (robot == null) {
+            // GDI32 copies only the regions of the desktop sampled by this context
+            addCaptureRegions(regions, config, samplingPlan, screenRect, fullFrame, from, to);
+            CustomGDI32Util[] grabbers = new CustomGDI32Util[regions.size()];
+            for (int i = 0; i < grabbers.length; i++) {
+                grabbers[i] = new CustomGDI32Util(User32.INSTANCE.GetDesktopWindow(), regions.get(i).getRect());
+            }
+            customGDI32Utils = grabbers;
+        } else {
+            addCaptureRegions(regions, config, samplingPlan, screenRect, fullFrame, from, to);
+        }
+        // The context is confined to its producer, regions are swapped between two frames
+        captureRegions = regions;
+        precompiledRegions = null;
+        if (fullFrame && regions.size() == 1) {
+            // Every matrix samples the same area, switching matrix is a swap of the regions in use
+            precompiledRegions = new HashMap<>();
+            for (String ledMatrixKey : config.getLedMatrix().keySet()) {
+                precompiledRegions.put(ledMatrixKey, List.of(new CaptureRegion(regions.get(0).getRect(),
+                        compilePlan(ledMatrixKey, osScaling, displayRect, screenRect))));
+            }
+        }
+
+    }
+
+    /**
+     * Snapshot the context should use
+     * @return fixed snapshot of the context, the published one if the context follows it
+     */
+    RuntimeConfig getLatestConfig() {
+
+        return fixedConfig != null ? fixedConfig : FireflyLuciferin.runtimeConfig.get();
+
+    }
+
+    /**
+     * Compile a LED matrix, coordinates are mapped from the configured resolution into the captured area
+     * @param ledMatrixKey matrix to compile
+     * @param osScaling OS scaling percentage applied to the coordinates
+     * @param displayRect display rectangle
+     * @param screenRect captured area, the display or a window
+     * @return plan relative to the captured area, samples never go past it
+     */
+    SamplingPlan compilePlan(String ledMatrixKey, int osScaling, Rectangle displayRect, Rectangle screenRect) {
+
+        Configuration config = runtimeConfig.getConfiguration();
+        // The geometry contains the coordinates of every matrix, snapshots with other coordinates never share a key
+        String cacheKey = String.join(Constants.PLAN_CACHE_SEPARATOR, ledMatrixKey, String.valueOf(osScaling),
+                String.valueOf(displayRect), String.valueOf(screenRect), runtimeConfig.getCaptureGeometry());
+        if (PLAN_CACHE.size() >= Constants.PLAN_CACHE_SIZE && !PLAN_CACHE.containsKey(cacheKey)) {
+            PLAN_CACHE.clear();
+        }
+        return PLAN_CACHE.computeIfAbsent(cacheKey, key -> {
+            SamplingPlan samplingPlan = new SamplingPlan(config.getLedMatrixInUse(ledMatrixKey), osScaling).rescale((config.getScreenResX() * 100) / osScaling,
+                    (config.getScreenResY() * 100) / osScaling, displayRect.width, displayRect.height);
+            if (!screenRect.equals(displayRect)) {
+                samplingPlan = samplingPlan.rescale(displayRect.width, displayRect.height, screenRect.width, screenRect.height);
+            }
+            return samplingPlan.clamp(screenRect);
+        });
+
+    }
+
+    /**
+     * Forget the compiled plans, used when the LED matrices change
+     */
+    public static void clearPlanCache() {
+
+        PLAN_CACHE.clear();
+
+    }
+
+    /**
+     * Check the display resolution and the captured window geometry, the context is reopened when they change.
+     * Window moves don't matter since the window is captured relative to its origin.
+     */
+    void checkGeometry() {
+
+        boolean displayChanged = !ImageProcessor.getDisplaySize().equals(displaySize);
+        boolean windowChanged = false;
+        if (captureWindow != null) {
+            Dimension size = X11WindowFinder.getSize(captureWindow);
+            windowChanged = !size.equals(captureWindowSize);
+            if (size.width == 0 || size.height == 0) {
+                // Window closed, look for a new one with the same title or class
+                captureWindow = X11WindowFinder.findWindow(FireflyLuciferin.config.getCaptureWindow());
+            }
+        }
+        if (displayChanged || windowChanged) {
+            logger.info(Constants.CAPTURE_GEOMETRY_CHANGED);
+            release();
+            open();
+        }
+
+    }
+
+    /**
+     * Compute the screen areas to capture for a range of LEDs
+     * @param captureRegions list where to add the regions
+     * @param config configuration in use
+     * @param samplingPlan plan with screen coordinates
+     * @param screenRect screen rectangle
+     * @param fullFrame true if the range contains every LED
+     * @param from first LED index, inclusive
+     * @param to last LED index, exclusive
+     */
+    static void addCaptureRegions(List<CaptureRegion> captureRegions, Configuration config, SamplingPlan samplingPlan,
+                                  Rectangle screenRect, boolean fullFrame, int from, int to) {
+
+        if (fullFrame && config.isBorderBandCapture()) {
+            // LEDs sample only a band near every edge, capture the four bands instead of the entire screen
+            for (SamplingPlan band : samplingPlan.splitByEdge(screenRect)) {
+                captureRegions.add(CaptureRegion.around(band, screenRect));
+            }
+        } else if (fullFrame) {
+            captureRegions.add(new CaptureRegion(screenRect, samplingPlan));
+        } else {
+            for (int[] edge : splitByEdge(config, samplingPlan.getLedNumber(), from, to)) {
+                captureRegions.add(CaptureRegion.around(samplingPlan.restrict(edge[0], edge[1]), screenRect));
+            }
+        }
+
+    }
+
+    /**
+     * Split a range of LEDs at the screen edges, LEDs on the same edge share a capture area
+     * @param config configuration in use
+     * @param ledNumber number of LEDs in the matrix
+     * @param from first LED index, inclusive
+     * @param to last LED index, exclusive
+     * @return ranges of LEDs, one for every edge touched by the range
+     */
+    static List<int[]> splitByEdge(Configuration config, int ledNumber, int from, int to) {
+
+        List<int[]> edges = new ArrayList<>();
+        int[] edgeSizes = {config.getBottomRightLed(), config.getRightLed(), config.getTopLed(), config.getLeftLed(), config.getBottomLeftLed()};
+        if (Arrays.stream(edgeSizes).sum() != ledNumber) {
+            // Custom matrix, edges are unknown
+            edges.add(new int[]{from, to});
+            return edges;
+        }
+        int edgeStart = 0;
+        for (int edgeSize : edgeSizes) {
+            int start = Math.max(from, edgeStart);
+            int end = Math.min(to, edgeStart + edgeSize);
+            if (start < end) {
+                edges.add(new int[]{start, end});
+            }
+            edgeStart += edgeSize;
+        }
+        return edges;
+
+    }
+
+    /**
+     * Screen Capture and analysis
+     * @return array of LEDs containing the avg color to be displayed on the LED strip
+     */
+    public Color[] getColors() {
+
+        Color[] leds = lastLeds != null ? lastLeds.clone() : new Color[ledNumber];
+        capture(leds);
+        if (damageTracker != null) {
+            lastLeds = leds;
+        }
+        return leds;
+
+    }
+
+    /**
+     * Capture the regions owned by this context and sample their LEDs
+     * @param leds frame where to write the sampled LEDs, LEDs not owned by this context are left untouched
+     */
+    public synchronized void capture(Color[] leds) {
+
+        if (closed) {
+            return;
+        }
+        RuntimeConfig latestConfig = getLatestConfig();
+        if (runtimeConfig != latestConfig && runtimeConfig.getCaptureGeometry().equals(latestConfig.getCaptureGeometry())) {
+            // Only colors changed, like gamma from the settings dialog, the new gamma table is read while sampling
+            runtimeConfig = latestConfig;
+        } else if (runtimeConfig != latestConfig) {
+            // Geometry changed, compile the new LED matrices
+            release();
+            open();
+        } else if (++frameCounter % Constants.GEOMETRY_CHECK_FRAMES == 0) {
+            checkGeometry();
+        }
+        String ledMatrixInUse = FireflyLuciferin.ledMatrixInUse;
+        if (!ledMatrixName.equals(ledMatrixInUse)) {
+            if (precompiledRegions != null) {
+                // Matrix switched at runtime
+                ledMatrixName = ledMatrixInUse;
+                captureRegions = precompiledRegions.get(ledMatrixName);
+                damageBaseline = false;
+            } else {
+                // Regions depend on the matrix, compile them for the new one
+                release();
+                open();
+            }
+        }
+        if (x11ShmGrabbers != null) {
+            // Shared memory segments are sampled in place
+            try {
+                if (damageTracker != null && damageBaseline) {
+                    captureDamage(leds);
+                    return;
+                }
+                for (int i = 0; i < x11ShmGrabbers.length; i++) {
+                    X11ShmGrabber x11ShmGrabber = x11ShmGrabbers[i];
+                    IntBuffer shmPixels = x11ShmGrabber.capture();
+                    captureRegions.get(i).getSamplingPlan().sample(shmPixels, x11ShmGrabber.getStride(), x11ShmGrabber.getHeight(), leds);
+                    if (precompiledRegions != null && FireflyLuciferin.letterboxDetector != null) {
+                        FireflyLuciferin.letterboxDetector.analyze(shmPixels, x11ShmGrabber.getStride(), x11ShmGrabber.getWidth(), x11ShmGrabber.getHeight());
+                    }
+                }
+                if (damageTracker != null) {
+                    // Everything has been sampled, discard the damage accumulated so far
+                    damageTracker.getDamage();
+                    damageBaseline = true;
+                }
+            } catch (IllegalStateException e) {
+                if (captureWindow == null) {
+                    throw e;
+                }
+                // Captured window has been resized or closed since the last check, LEDs keep the previous colors
+                checkGeometry();
+            }
+            return;
+        }
+        for (int i = 0; i < captureRegions.size(); i++) {
+            CaptureRegion captureRegion = captureRegions.get(i);
+            BufferedImage screen = customGDI32Utils != null ? customGDI32Utils[i].getScreenshot()
+                    : robot.createScreenCapture(captureRegion.getRect());
+            IntBuffer screenPixels = getPixels(screen);
+            captureRegion.getSamplingPlan().sample(screenPixels, screen.getWidth(), screen.getHeight(), leds);
+            // Black bars are detected only when the matrix follows them
+            if (precompiledRegions != null && FireflyLuciferin.letterboxDetector != null) {
+                FireflyLuciferin.letterboxDetector.analyze(screenPixels, screen.getWidth(), screen.getWidth(), screen.getHeight());
+            }
+        }
+
+    }
+
+    /**
+     * Capture and sample only the LEDs whose sampled area has been damaged since the previous frame,
+     * regions without damaged LEDs are not captured at all
+     * @param leds frame containing the previous colors, damaged LEDs are overwritten
+     */
+    void captureDamage(Color[] leds) {
+
+        List<Rectangle> damage = damageTracker.getDamage();
+        if (damage.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < x11ShmGrabbers.length; i++) {
+            CaptureRegion captureRegion = captureRegions.get(i);
+            int[] damagedLeds = captureRegion.getSamplingPlan().getDamagedLeds(damage, captureRegion.getRect().x, captureRegion.getRect().y);
+            if (damagedLeds.length > 0) {
+                X11ShmGrabber x11ShmGrabber = x11ShmGrabbers[i];
+                captureRegion.getSamplingPlan().sample(x11ShmGrabber.capture(), x11ShmGrabber.getStride(),
+                        x11ShmGrabber.getHeight(), leds, damagedLeds);
+            }
+        }
+
+    }
+
+    /**
+     * Release native resources owned by this context, waits for the frame being captured
+     */
+    public synchronized void close() {
+
+        closed = true;
+        release();
+
+    }
+
+    /**
+     * Stop using MIT-SHM, the context captures with a Robot from now on
+     */
+    void fallBackToRobot() {
+
+        x11Shm = false;
+        captureWindow = null;
+        try {
+            robot = new Robot();
+        } catch (AWTException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Release native resources, the context can be opened again
+     */
+    void release() {
+
+        if (x11ShmGrabbers != null) {
+            for (X11ShmGrabber x11ShmGrabber : x11ShmGrabbers) {
+                x11ShmGrabber.close();
+            }
+        }
+        if (damageTracker != null) {
+            damageTracker.close();
+            damageTracker = null;
+        }
+        x11ShmGrabbers = null;
+        customGDI32Utils = null;
+
+    }
+
+    /**
+     * Access the screen pixels without copying them when the image is backed by an int array
+     * @param screen screenshot image
+     * @return packed RGB pixels
+     */
+    IntBuffer getPixels(BufferedImage screen) {
+
+        if (screen.getRaster().getDataBuffer() instanceof DataBufferInt
+                && screen.getRaster().getDataBuffer().getNumBanks() == 1
+                && screen.getType() == BufferedImage.TYPE_INT_RGB) {
+            return IntBuffer.wrap(((DataBufferInt) screen.getRaster().getDataBuffer()).getData());
+        }
+        int size = screen.getWidth() * screen.getHeight();
+        if (pixels.length != size) {
+            pixels = new int[size];
+        }
+        screen.getRGB(0, 0, screen.getWidth(), screen.getHeight(), pixels, 0, screen.getWidth());
+        return IntBuffer.wrap(pixels);
+
+    }
+
+    /**
+     * Screen area captured in a single call
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class CaptureRegion {
+
+        // Area to capture
+        private final Rectangle rect;
+        // Plan relative to the region origin
+        private final SamplingPlan samplingPlan;
+
+        /**
+         * Create a region covering only the pixels sampled by a plan
+         * @param samplingPlan plan with screen coordinates
+         * @param screenRect screen rectangle
+         * @return capture region with a plan relative to its origin
+         */
+        static CaptureRegion around(SamplingPlan samplingPlan, Rectangle screenRect) {
+
+            Rectangle bounds = samplingPlan.getBounds(screenRect);
+            if (bounds.isEmpty()) {
+                // LEDs outside the screen, sample the nearest pixels as usual
+                return new CaptureRegion(screenRect, samplingPlan);
+            }
+            return new CaptureRegion(bounds, samplingPlan.translate(bounds.x, bounds.y));
+
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+  CpuGovernor.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import com.sun.jna.Platform;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Keep the process CPU usage under the configured budget.
+ * The process CPU load is sampled periodically, when it exceeds the budget producers are parked one at a time
+ * and then the capture rate is divided, when it drops well below the budget the same steps are undone in reverse.
+ * On Linux a lower budget can be used while the machine runs on battery.
+ */
+public class CpuGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(CpuGovernor.class);
+
+    private final com.sun.management.OperatingSystemMXBean osBean =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final int maxProducers;
+    // Producers with an index greater or equal to this value are parked
+    private volatile int activeProducers;
+    // Producers capture one tick every rateDivider ticks
+    private volatile int rateDivider = 1;
+
+    /**
+     * Constructor
+     * @param maxProducers number of producers that can be parked, use 1 when producers can't be parked
+     */
+    public CpuGovernor(int maxProducers) {
+
+        this.maxProducers = maxProducers;
+        this.activeProducers = maxProducers;
+
+    }
+
+    /**
+     * Check if a producer should capture on this tick
+     * @param producer producer index
+     * @param tick producer tick counter
+     * @return true if the producer is active and the tick falls on the capture rate
+     */
+    public boolean shouldCapture(int producer, long tick) {
+
+        return producer < activeProducers && tick % rateDivider == 0;
+
+    }
+
+    /**
+     * Sample the process CPU load and take one step towards the budget, called periodically
+     */
+    public void regulate() {
+
+        Configuration config = FireflyLuciferin.config;
+        double budget = config.getCpuBudget();
+        if (config.getBatteryCpuBudget() > 0 && isOnBattery()) {
+            budget = config.getBatteryCpuBudget();
+        }
+        double load = osBean.getProcessCpuLoad() * 100;
+        if (load < 0) {
+            // Not available yet
+            return;
+        }
+        if (load > budget) {
+            if (activeProducers > 1) {
+                activeProducers--;
+            } else if (rateDivider < Constants.GOVERNOR_MAX_RATE_DIVIDER) {
+                rateDivider++;
+            }
+        } else if (load < budget * Constants.GOVERNOR_RELAX_RATIO) {
+            if (rateDivider > 1) {
+                rateDivider--;
+            } else if (activeProducers < maxProducers) {
+                activeProducers++;
+            }
+        }
+        logger.debug(Constants.GOVERNOR_STATUS, String.format("%.1f", load), budget, activeProducers, rateDivider);
+
+    }
+
+    /**
+     * Check if the machine is running on battery, Linux only
+     * @return true if a battery is discharging
+     */
+    static boolean isOnBattery() {
+
+        if (!Platform.isLinux()) {
+            return false;
+        }
+        try (DirectoryStream<Path> powerSupplies = Files.newDirectoryStream(Paths.get(Constants.POWER_SUPPLY_PATH))) {
+            for (Path powerSupply : powerSupplies) {
+                Path type = powerSupply.resolve(Constants.POWER_SUPPLY_TYPE);
+                Path status = powerSupply.resolve(Constants.POWER_SUPPLY_STATUS);
+                if (Files.isReadable(type) && Files.isReadable(status)
+                        && Files.readString(type).trim().equals(Constants.POWER_SUPPLY_BATTERY)
+                        && Files.readString(status).trim().equals(Constants.POWER_SUPPLY_DISCHARGING)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return false;
+
+    }
+
+}
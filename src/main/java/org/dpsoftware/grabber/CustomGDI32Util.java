@@ -37,17 +37,22 @@ import java.awt.image.*;
 
 /**
  * GPU Hardware Acceleration using Java Native Access API
+ * A grabber captures the entire window or only a region of it, the image has the size of the captured area.
  */
 public class CustomGDI32Util {
 
     private static final DirectColorModel SCREENSHOT_COLOR_MODEL = new DirectColorModel(24, 16711680, 65280, 255);
     private static final int[] SCREENSHOT_BAND_MASKS;
     private final HWND target;
+    // Origin of the captured area in the window
+    int sourceX;
+    int sourceY;
     int windowWidth;
     int windowHeight;
     Memory buffer;
     int bufferSize;
     BITMAPINFO bmi;
+    int[] pixels;
     DataBuffer dataBuffer;
     BufferedImage image;
     HANDLE hOriginal;
@@ -58,14 +63,22 @@ public class CustomGDI32Util {
      */
     public CustomGDI32Util(HWND target) {
 
-        RECT rect = new RECT();
+        this(target, getWindowRect(target));
+
+    }
+
+    /**
+     * Constructor
+     * @param target hwnd
+     * @param region area of the window to capture, relative to the window origin
+     */
+    public CustomGDI32Util(HWND target, Rectangle region) {
+
         this.target = target;
-        if (!User32.INSTANCE.GetWindowRect(target, rect)) {
-            throw new Win32Exception(Native.getLastError());
-        }
-        Rectangle jRectangle = rect.toRectangle();
-        windowWidth = jRectangle.width;
-        windowHeight = jRectangle.height;
+        sourceX = region.x;
+        sourceY = region.y;
+        windowWidth = region.width;
+        windowHeight = region.height;
         buffer = new Memory(windowWidth * windowHeight * 4);
         bufferSize = windowWidth * windowHeight;
         bmi = new BITMAPINFO();
@@ -74,8 +87,26 @@ public class CustomGDI32Util {
         bmi.bmiHeader.biPlanes = 1;
         bmi.bmiHeader.biBitCount = 32;
         bmi.bmiHeader.biCompression = 0;
-        dataBuffer = new DataBufferInt(buffer.getIntArray(0L, bufferSize), bufferSize);
-        image = null;
+        pixels = new int[bufferSize];
+        dataBuffer = new DataBufferInt(pixels, bufferSize);
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, windowWidth, windowHeight, windowWidth, SCREENSHOT_BAND_MASKS, null);
+        image = new BufferedImage(SCREENSHOT_COLOR_MODEL, raster, false, null);
+
+    }
+
+    /**
+     * Area of the entire window
+     * @param target hwnd
+     * @return window rectangle with its origin at 0, 0
+     */
+    static Rectangle getWindowRect(HWND target) {
+
+        RECT rect = new RECT();
+        if (!User32.INSTANCE.GetWindowRect(target, rect)) {
+            throw new Win32Exception(Native.getLastError());
+        }
+        Rectangle jRectangle = rect.toRectangle();
+        return new Rectangle(jRectangle.width, jRectangle.height);
 
     }
 
@@ -112,7 +143,7 @@ public class CustomGDI32Util {
                                 throw new Win32Exception(Native.getLastError());
                             }
 
-                            if (!GDI32.INSTANCE.BitBlt(hdcTargetMem, 0, 0, windowWidth, windowHeight, hdcTarget, 0, 0, 13369376)) {
+                            if (!GDI32.INSTANCE.BitBlt(hdcTargetMem, 0, 0, windowWidth, windowHeight, hdcTarget, sourceX, sourceY, 13369376)) {
                                 throw new Win32Exception(Native.getLastError());
                             }
 
@@ -121,9 +152,8 @@ public class CustomGDI32Util {
                                 throw new Win32Exception(Native.getLastError());
                             }
 
-                            DataBuffer dataBuffer = new DataBufferInt(buffer.getIntArray(0L, bufferSize), bufferSize);
-                            WritableRaster raster = Raster.createPackedRaster(dataBuffer, windowWidth, windowHeight, windowWidth, SCREENSHOT_BAND_MASKS, null);
-                            image = new BufferedImage(SCREENSHOT_COLOR_MODEL, raster, false, null);
+                            // Image is allocated once, copy the native buffer into its backing array
+                            buffer.read(0L, pixels, 0, bufferSize);
 
                         } catch (Win32Exception var23) {
                             throw new IllegalStateException(Constants.WIN32_EXCEPTION);
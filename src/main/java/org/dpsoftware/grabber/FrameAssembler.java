@@ -0,0 +1,108 @@
+/*
+  FrameAssembler.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Assemble a frame from the partial results of cooperative producers.
+ * Every producer samples its own set of LEDs, the frame is offered to the consumer
+ * as soon as all the parts are in. A producer that comes back before the frame is complete
+ * simply refreshes its part with newer colors.
+ */
+public class FrameAssembler {
+
+    private final int ledNumber;
+    private final boolean[] contributed;
+    private int contributedParts;
+    private Color[] frame;
+    // Detector fed with every assembled frame, null if the adaptive capture rate is disabled
+    private final AdaptiveCaptureRate adaptiveCaptureRate;
+
+    /**
+     * Constructor
+     * @param ledNumber number of LEDs in the frame
+     * @param parts number of cooperative producers
+     */
+    public FrameAssembler(int ledNumber, int parts) {
+
+        this(ledNumber, parts, null);
+
+    }
+
+    /**
+     * Constructor
+     * @param ledNumber number of LEDs in the frame
+     * @param parts number of cooperative producers
+     * @param adaptiveCaptureRate detector fed with every assembled frame, null if the adaptive capture rate is disabled
+     */
+    public FrameAssembler(int ledNumber, int parts, AdaptiveCaptureRate adaptiveCaptureRate) {
+
+        this.ledNumber = ledNumber;
+        this.adaptiveCaptureRate = adaptiveCaptureRate;
+        this.contributed = new boolean[parts];
+        this.frame = new Color[ledNumber];
+
+    }
+
+    /**
+     * Split the LED range in contiguous chunks, one for every producer
+     * @param ledNumber number of LEDs in the frame
+     * @param parts number of cooperative producers
+     * @param part producer index
+     * @return first (inclusive) and last (exclusive) LED index of the chunk
+     */
+    public static int[] getRange(int ledNumber, int parts, int part) {
+
+        return new int[]{(ledNumber * part) / parts, (ledNumber * (part + 1)) / parts};
+
+    }
+
+    /**
+     * Copy a partial result into the frame, offer the frame when complete
+     * @param part producer index
+     * @param leds producer buffer
+     * @param ledIndexes LEDs sampled by the producer
+     */
+    public synchronized void contribute(int part, Color[] leds, int[] ledIndexes) {
+
+        for (int ledIndex : ledIndexes) {
+            frame[ledIndex] = leds[ledIndex];
+        }
+        if (!contributed[part]) {
+            contributed[part] = true;
+            contributedParts++;
+        }
+        if (contributedParts == contributed.length) {
+            FireflyLuciferin.sharedQueue.offer(frame);
+            FireflyLuciferin.FPS_PRODUCER_COUNTER++;
+            if (adaptiveCaptureRate != null) {
+                adaptiveCaptureRate.update(frame);
+            }
+            frame = new Color[ledNumber];
+            Arrays.fill(contributed, false);
+            contributedParts = 0;
+        }
+
+    }
+
+}
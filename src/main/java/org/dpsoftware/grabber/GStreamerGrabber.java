@@ -19,8 +19,9 @@
 package org.dpsoftware.grabber;
 
 import org.dpsoftware.FireflyLuciferin;
-import org.dpsoftware.LEDCoordinate;
+import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.config.RuntimeConfig;
 import org.freedesktop.gstreamer.*;
 import org.freedesktop.gstreamer.elements.AppSink;
 
@@ -28,7 +29,10 @@ import java.awt.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -40,7 +44,21 @@ public class GStreamerGrabber extends javax.swing.JComponent {
 
     private final Lock bufferLock = new ReentrantLock();
     private final AppSink videosink;
-    static LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
+    // Frames are delivered by the GStreamer streaming thread, a new plan is swapped in between two frames
+    private final AtomicReference<SamplingPlan> samplingPlan;
+    // Plan as compiled for the screen, mapped into the buffer size when the source is a window or a scaled screen
+    private SamplingPlan screenPlan;
+    // Plan of every matrix, the plan in use is swapped when the matrix in use is switched
+    private final Map<String, SamplingPlan> screenPlans = new HashMap<>();
+    private String planMatrix;
+    // Runtime configuration the screen plans have been compiled with
+    private RuntimeConfig planConfig;
+    private int planWidth;
+    private int planHeight;
+    // Assembler used when this grabber receives only a screen edge, null when receiving the entire screen
+    private final FrameAssembler frameAssembler;
+    private final int part;
+    private final Color[] leds;
 
     /**
      * Creates a new instance of GstVideoComponent
@@ -48,7 +66,6 @@ public class GStreamerGrabber extends javax.swing.JComponent {
     public GStreamerGrabber() {
 
         this(new AppSink("GstVideoComponent"));
-        ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
 
     }
 
@@ -57,10 +74,47 @@ public class GStreamerGrabber extends javax.swing.JComponent {
      */
     public GStreamerGrabber(AppSink appsink) {
 
+        this(appsink, new SamplingPlan(FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.ledMatrixInUse), 100),
+                new Dimension(FireflyLuciferin.config.getScreenResX(), FireflyLuciferin.config.getScreenResY()), null, 0);
+        compileScreenPlans(FireflyLuciferin.runtimeConfig.get());
+
+    }
+
+    /**
+     * Creates a new instance of GstVideoComponent that samples a part of the frame
+     * @param appsink appsink receiving the frames
+     * @param samplingPlan plan relative to the buffers received by the appsink
+     * @param planSize size of the buffers the plan has been compiled for
+     * @param frameAssembler assembler collecting the parts, null when sampling the entire frame
+     * @param part part index used by the assembler
+     */
+    public GStreamerGrabber(AppSink appsink, SamplingPlan samplingPlan, Dimension planSize, FrameAssembler frameAssembler, int part) {
+
         this.videosink = appsink;
+        this.samplingPlan = new AtomicReference<>(samplingPlan);
+        this.screenPlan = samplingPlan;
+        this.planMatrix = FireflyLuciferin.ledMatrixInUse;
+        this.planWidth = planSize.width;
+        this.planHeight = planSize.height;
+        this.frameAssembler = frameAssembler;
+        this.part = part;
+        this.leds = new Color[samplingPlan.getLedNumber()];
         videosink.set(Constants.EMIT_SIGNALS, true);
         AppSinkListener listener = new AppSinkListener();
         videosink.connect(listener);
+        videosink.setCaps(getCaps());
+        setLayout(null);
+        setOpaque(true);
+        setBackground(Color.BLACK);
+
+    }
+
+    /**
+     * Caps of the frames delivered to the appsinks
+     * @return packed RGB caps
+     */
+    static Caps getCaps() {
+
         StringBuilder caps = new StringBuilder(Constants.GSTREAMER_PIPELINE);
         // JNA creates ByteBuffer using native byte order, set masks according to that.
         if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
@@ -68,10 +122,141 @@ public class GStreamerGrabber extends javax.swing.JComponent {
         } else {
             caps.append(Constants.BYTE_ORDER_RGB);
         }
-        videosink.setCaps(new Caps(caps.toString()));
-        setLayout(null);
-        setOpaque(true);
-        setBackground(Color.BLACK);
+        return new Caps(caps.toString());
+
+    }
+
+    /**
+     * Compile the screen plans of the entire frame
+     * @param runtimeConfig runtime configuration to compile
+     */
+    void compileScreenPlans(RuntimeConfig runtimeConfig) {
+
+        Configuration config = runtimeConfig.getConfiguration();
+        screenPlan = new SamplingPlan(config.getLedMatrixInUse(FireflyLuciferin.ledMatrixInUse), 100);
+        screenPlans.clear();
+        config.getLedMatrix().forEach((ledMatrixKey, ledMatrix) -> screenPlans.put(ledMatrixKey, new SamplingPlan(ledMatrix, 100)));
+        planConfig = runtimeConfig;
+        // Map the new plans into the next frame
+        planWidth = 0;
+
+    }
+
+    /**
+     * Build a pipeline that delivers only the screen edges to Java.
+     * The source is split by a tee, every branch crops the band around a screen edge, scales it down
+     * and feeds its own appsink, the edges are then assembled in a single frame.
+     * @param source source bin producing the entire screen
+     * @param edgeGrabbers list where to add the grabber of every branch, used to resize the pipeline
+     * @return pipeline ready to play
+     */
+    public static Pipeline buildEdgePipeline(Bin source, List<GStreamerGrabber> edgeGrabbers) {
+
+        Rectangle screenRect = new Rectangle(ImageProcessor.getDisplaySize());
+        List<SamplingPlan> bands = getEdgeBands(screenRect);
+        FrameAssembler frameAssembler = new FrameAssembler(bands.get(0).getLedNumber(), bands.size());
+        Pipeline pipeline = new Pipeline();
+        Element tee = ElementFactory.make(Constants.GSTREAMER_TEE, Constants.GSTREAMER_TEE);
+        pipeline.addMany(source, tee);
+        source.link(tee);
+        for (int i = 0; i < bands.size(); i++) {
+            Rectangle bounds = getEdgeBounds(bands.get(i), screenRect);
+            Dimension scaledSize = getEdgeSize(bounds);
+            Bin branch = Gst.parseBinFromDescription(String.format(Constants.GSTREAMER_EDGE_BRANCH, i, bounds.y, bounds.x,
+                    screenRect.width - (bounds.x + bounds.width), screenRect.height - (bounds.y + bounds.height),
+                    scaledSize.width, scaledSize.height), true);
+            GStreamerGrabber edgeGrabber = new GStreamerGrabber(new AppSink("GstVideoComponent" + i),
+                    getEdgePlan(bands.get(i), bounds), scaledSize, frameAssembler, i);
+            pipeline.addMany(branch, edgeGrabber.getElement());
+            tee.link(branch);
+            branch.link(edgeGrabber.getElement());
+            edgeGrabbers.add(edgeGrabber);
+        }
+        return pipeline;
+
+    }
+
+    /**
+     * Follow a display resolution change without rebuilding the pipeline.
+     * Crop areas are updated on the running pipeline and the rescaled plans are swapped in atomically,
+     * the scaled size of every branch is left untouched so the negotiated caps don't change.
+     * @param pipeline pipeline built by {@link #buildEdgePipeline(Bin, List)}
+     * @param edgeGrabbers grabbers of the pipeline branches
+     * @param displaySize new display size
+     * @return false if the LEDs are now split on a different number of edges and the pipeline must be rebuilt
+     */
+    public static boolean resizeEdgePipeline(Pipeline pipeline, List<GStreamerGrabber> edgeGrabbers, Dimension displaySize) {
+
+        Rectangle screenRect = new Rectangle(displaySize);
+        List<SamplingPlan> bands = getEdgeBands(screenRect);
+        if (bands.size() != edgeGrabbers.size()) {
+            return false;
+        }
+        for (int i = 0; i < bands.size(); i++) {
+            Rectangle bounds = getEdgeBounds(bands.get(i), screenRect);
+            Element videocrop = pipeline.getElementByName(Constants.GSTREAMER_VIDEOCROP + i);
+            videocrop.set(Constants.TOP, bounds.y);
+            videocrop.set(Constants.LEFT, bounds.x);
+            videocrop.set(Constants.RIGHT, screenRect.width - (bounds.x + bounds.width));
+            videocrop.set(Constants.BOTTOM, screenRect.height - (bounds.y + bounds.height));
+            GStreamerGrabber edgeGrabber = edgeGrabbers.get(i);
+            // The branch output keeps its size, map the band into it
+            Dimension scaledSize = getEdgeSize(bounds);
+            SamplingPlan edgePlan = getEdgePlan(bands.get(i), bounds).rescale(scaledSize.width, scaledSize.height,
+                    edgeGrabber.planWidth, edgeGrabber.planHeight);
+            edgeGrabber.samplingPlan.set(edgePlan);
+        }
+        return true;
+
+    }
+
+    /**
+     * Split the LED plan in screen edges, LED coordinates are mapped into the display resolution
+     * @param screenRect display rectangle
+     * @return one plan for every screen edge with LEDs
+     */
+    static List<SamplingPlan> getEdgeBands(Rectangle screenRect) {
+
+        Configuration config = FireflyLuciferin.config;
+        SamplingPlan samplingPlan = new SamplingPlan(config.getLedMatrixInUse(FireflyLuciferin.ledMatrixInUse), 100)
+                .rescale(config.getScreenResX(), config.getScreenResY(), screenRect.width, screenRect.height);
+        return samplingPlan.splitByEdge(screenRect);
+
+    }
+
+    /**
+     * Area cropped by the branch of a screen edge
+     * @param band plan of the screen edge
+     * @param screenRect display rectangle
+     * @return crop area, the entire screen if the band has no pixels on screen
+     */
+    static Rectangle getEdgeBounds(SamplingPlan band, Rectangle screenRect) {
+
+        Rectangle bounds = band.getBounds(screenRect);
+        return bounds.isEmpty() ? screenRect : bounds;
+
+    }
+
+    /**
+     * Size of the cropped area once scaled down
+     * @param bounds crop area
+     * @return scaled size
+     */
+    static Dimension getEdgeSize(Rectangle bounds) {
+
+        return new Dimension(Math.max(1, bounds.width / Constants.GSTREAMER_EDGE_SCALE), Math.max(1, bounds.height / Constants.GSTREAMER_EDGE_SCALE));
+
+    }
+
+    /**
+     * Plan of a screen edge relative to the cropped and scaled branch output
+     * @param band plan of the screen edge
+     * @param bounds crop area
+     * @return plan relative to the branch output
+     */
+    static SamplingPlan getEdgePlan(SamplingPlan band, Rectangle bounds) {
+
+        return band.translate(bounds.x, bounds.y).scale(Constants.GSTREAMER_EDGE_SCALE);
 
     }
 
@@ -97,44 +282,37 @@ public class GStreamerGrabber extends javax.swing.JComponent {
                 return;
             }
 
-            int intBufferSize = (width*height)-1;
-
             try {
-                Color[] leds = new Color[ledMatrix.size()];
-                // We need an ordered collection so no parallelStream here
-                ledMatrix.forEach((key, value) -> {
-                    int r = 0, g = 0, b = 0;
-                    int skipPixel = 5;
-                    // 6 pixel for X axis and 6 pixel for Y axis
-                    int pixelToUse = 6;
-                    int pickNumber = 0;
-                    int xCoordinate = value.getX();
-                    int yCoordinate = value.getY();
-                    // We start with a negative offset
-                    for (int x = 0; x < pixelToUse; x++) {
-                        for (int y = 0; y < pixelToUse; y++) {
-                            int offsetX = (xCoordinate + (skipPixel * x));
-                            int offsetY = (yCoordinate + (skipPixel * y));
-                            int bufferOffset = (Math.min(offsetX, width))
-                                    + ((offsetY < height) ? (offsetY * width) : (height * width));
-                            int rgb = rgbBuffer.get(Math.min(intBufferSize, bufferOffset));
-                            r += rgb >> 16 & 0xFF;
-                            g += rgb >> 8 & 0xFF;
-                            b += rgb & 0xFF;
-                            pickNumber++;
-                        }
+                if (frameAssembler != null) {
+                    // Only a screen edge, the assembler puts the frame in the queue
+                    SamplingPlan edgePlan = samplingPlan.get();
+                    edgePlan.sample(rgbBuffer, width, height, leds);
+                    frameAssembler.contribute(part, leds, edgePlan.getLedIndexes());
+                } else {
+                    RuntimeConfig runtimeConfig = FireflyLuciferin.runtimeConfig.get();
+                    if (runtimeConfig != planConfig) {
+                        // Configuration file reloaded
+                        compileScreenPlans(runtimeConfig);
+                    }
+                    Configuration config = runtimeConfig.getConfiguration();
+                    String ledMatrix = FireflyLuciferin.ledMatrixInUse;
+                    if (width != planWidth || height != planHeight || !ledMatrix.equals(planMatrix)) {
+                        // Captured window or display resolution differs from the configured one, map the LEDs into it
+                        samplingPlan.set(screenPlans.getOrDefault(ledMatrix, screenPlan).rescale(config.getScreenResX(),
+                                config.getScreenResY(), width, height));
+                        planMatrix = ledMatrix;
+                        planWidth = width;
+                        planHeight = height;
+                    }
+                    // Put the image in the queue
+                    FireflyLuciferin.sharedQueue.offer(samplingPlan.get().getColors(rgbBuffer, width, height));
+                    if (FireflyLuciferin.letterboxDetector != null) {
+                        FireflyLuciferin.letterboxDetector.analyze(rgbBuffer, width, width, height);
                     }
-                    r = ImageProcessor.gammaCorrection(r / pickNumber);
-                    g = ImageProcessor.gammaCorrection(g / pickNumber);
-                    b = ImageProcessor.gammaCorrection(b / pickNumber);
-                    leds[key - 1] = new Color(r, g, b);
-                });
-
-                // Put the image in the queue
-                FireflyLuciferin.sharedQueue.offer(leds);
 
-                // Increase the FPS counter
-                FireflyLuciferin.FPS_PRODUCER_COUNTER++;
+                    // Increase the FPS counter
+                    FireflyLuciferin.FPS_PRODUCER_COUNTER++;
+                }
 
             } finally {
                 bufferLock.unlock();
@@ -20,139 +20,45 @@ package org.dpsoftware.grabber;
 
 import com.sun.jna.Platform;
 import com.sun.jna.platform.win32.Kernel32;
-import com.sun.jna.platform.win32.WinDef;
-import org.dpsoftware.config.Configuration;
 import org.dpsoftware.FireflyLuciferin;
-import org.dpsoftware.LEDCoordinate;
 import org.dpsoftware.config.Constants;
+import org.freedesktop.gstreamer.Gst;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.LinkedHashMap;
 
 /**
  * Convert screen capture into a "readable signal" for LED strip
  * Screen capture can be done using CPU (you need a lot of threads to get a good framerate) or via
- * GPU Hardware Acceleration using Java Native Access API
+ * GPU Hardware Acceleration using Java Native Access API.
+ * Screen capture state lives in a {@link CaptureContext} owned by every producer.
  */
 public class ImageProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageProcessor.class);
 
-    // Only one instace must be used, Java Garbage Collector will not be fast enough in freeing memory with more instances
-    static BufferedImage screen;
-    //Get JNA User32 Instace
-    com.sun.jna.platform.win32.User32 user32;
-    //Get desktop windows handler
-    WinDef.HWND hwnd;
-    // LED Matrix Map
-    static LinkedHashMap<Integer, LEDCoordinate> ledMatrix;
-    // Screen capture rectangle
-    static Rectangle rect;
-    // Custom JNA Class for GDI32Util
-    static CustomGDI32Util customGDI32Util;
-
     /**
-     * Constructor
+     * Current resolution of the default screen device, in physical pixels
+     * @return display size
      */
-    public ImageProcessor() {
+    public static Dimension getDisplaySize() {
 
-        if (Platform.isWindows()) {
-            user32 = com.sun.jna.platform.win32.User32.INSTANCE;
-            hwnd = user32.GetDesktopWindow();
-            customGDI32Util = new CustomGDI32Util(hwnd);
-        }
-        ledMatrix = FireflyLuciferin.config.getLedMatrixInUse(FireflyLuciferin.config.getDefaultLedMatrix());
-        rect = new Rectangle(new Dimension((FireflyLuciferin.config.getScreenResX()*100)/FireflyLuciferin.config.getOsScaling(), (FireflyLuciferin.config.getScreenResY()*100)/FireflyLuciferin.config.getOsScaling()));
+        DisplayMode displayMode = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode();
+        return new Dimension(displayMode.getWidth(), displayMode.getHeight());
 
     }
 
     /**
-     * Screen Capture and analysis
-     *
-     * @param robot an AWT Robot instance for screen capture.
-     *              One instance every three threads seems to be the hot spot for performance.
-     * @param image screenshot image
-     * @return array of LEDs containing the avg color to be displayed on the LED strip
+     * Load and initialize GStreamer once, used by GStreamer capture and by calibration
      */
-    public static Color[] getColors(Robot robot, BufferedImage image) {
-
-        // Choose between CPU and GPU acceleration
-        if (image == null) {
-            if (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.WinAPI.name())) {
-                screen = customGDI32Util.getScreenshot();
-            } else {
-                screen = robot.createScreenCapture(rect);
-            }
-            //ImageIO.write(bi, "png", new java.io.File("screenshot.png"));
-        } else {
-            screen = image;
-        }
-
-        int osScaling = FireflyLuciferin.config.getOsScaling();
-        Color[] leds = new Color[ledMatrix.size()];
-
-        // We need an ordered collection so no parallelStream here
-        ledMatrix.forEach((key, value) ->
-            leds[key - 1] = getAverageColor(value, osScaling)
-        );
-
-        return leds;
-
-    }
+    public synchronized void initGStreamer() {
 
-    /**
-     * Get the average color from the screen buffer section
-     *
-     * @param ledCoordinate led X,Y coordinates
-     * @param osScaling OS scaling percentage
-     * @return the average color
-     */
-    static Color getAverageColor(LEDCoordinate ledCoordinate, int osScaling) {
-
-        int r = 0, g = 0, b = 0;
-        int skipPixel = 5;
-        // 6 pixel for X axis and 6 pixel for Y axis
-        int pixelToUse = 6;
-        int pickNumber = 0;
-        int width = screen.getWidth()-(skipPixel*pixelToUse);
-        int height = screen.getHeight()-(skipPixel*pixelToUse);
-        int xCoordinate = !(FireflyLuciferin.config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.CPU.name())) ? ledCoordinate.getX() : ((ledCoordinate.getX() * 100) / osScaling);
-        int yCoordinate = !(FireflyLuciferin.config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.CPU.name())) ? ledCoordinate.getY() : ((ledCoordinate.getY() * 100) / osScaling);
-
-        // We start with a negative offset
-        for (int x = 0; x < pixelToUse; x++) {
-            for (int y = 0; y < pixelToUse; y++) {
-                int offsetX = (xCoordinate + (skipPixel*x));
-                int offsetY = (yCoordinate + (skipPixel*y));
-                int rgb = screen.getRGB(Math.min(offsetX, width), Math.min(offsetY, height));
-                Color color = new Color(rgb);
-                r += color.getRed();
-                g += color.getGreen();
-                b += color.getBlue();
-                pickNumber++;
-            }
+        if (!Gst.isInitialized()) {
+            initGStreamerLibraryPaths();
+            Gst.init(Constants.SCREEN_GRABBER, "");
         }
-        r = gammaCorrection(r / pickNumber);
-        g = gammaCorrection(g / pickNumber);
-        b = gammaCorrection(b / pickNumber);
-
-        return new Color(r, g, b);
-
-    }
-
-    /**
-     * Adjust gamma based on a given color
-     *
-     * @param color the color to adjust
-     * @return the average color
-     */
-    public static int gammaCorrection(int color) {
-
-        return (int) (255.0 *  Math.pow((color/255.0), FireflyLuciferin.config.getGamma()));
 
     }
 
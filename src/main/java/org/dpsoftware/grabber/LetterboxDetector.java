@@ -0,0 +1,156 @@
+/*
+  LetterboxDetector.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.config.Constants;
+
+import java.awt.*;
+import java.nio.IntBuffer;
+
+/**
+ * Detect black bars at the top and at the bottom or at the sides of the screen and switch between the
+ * FULLSCREEN, the LETTERBOX and the PILLARBOX matrices at runtime.
+ * Only one pair of rows and one pair of columns are scanned every frame, a verdict is reached when every probe
+ * has been scanned. Bars on every side select the LETTERBOX matrix, configurations without a PILLARBOX matrix
+ * keep the FULLSCREEN matrix for pillarboxed content.
+ * The matrix is switched only after a number of consecutive verdicts against the matrix in use,
+ * producers swap their precompiled plans on the next frame, capture is never restarted.
+ */
+public class LetterboxDetector {
+
+    // Rows and columns probed inside the candidate bars as a fraction of the screen height and width,
+    // mirrored at the bottom and at the right
+    static final double[] PROBES = {0.02, 0.05, 0.08, 0.11};
+    // A pixel is black when no channel exceeds this value
+    static final int BLACK_THRESHOLD = 20;
+    // Distance in pixel between two samples in a probed row or column
+    static final int SAMPLE_STEP = 8;
+    // Consecutive verdicts needed to switch the matrix
+    static final int SWITCH_VERDICTS = 10;
+
+    private int probe;
+    private boolean rowsBlack = true;
+    private boolean columnsBlack = true;
+    private int verdicts;
+
+    /**
+     * Scan the next probe rows and columns, switch the matrix in use when the verdict is stable
+     * @param pixels packed RGB pixels of the entire screen
+     * @param stride scanline stride in pixels
+     * @param width screen width
+     * @param height screen height
+     */
+    public synchronized void analyze(IntBuffer pixels, int stride, int width, int height) {
+
+        if (probe < PROBES.length) {
+            int y = (int) (height * PROBES[probe]);
+            int x = (int) (width * PROBES[probe]);
+            rowsBlack = rowsBlack && isBlack(pixels, stride, width, y) && isBlack(pixels, stride, width, height - 1 - y);
+            columnsBlack = columnsBlack && isBlackColumn(pixels, stride, height, x) && isBlackColumn(pixels, stride, height, width - 1 - x);
+            probe++;
+            return;
+        }
+        // Last step of the cycle probes the center of the screen, a black screen is not a letterbox
+        if (!isBlack(pixels, stride, width, height / 2)) {
+            String detected = getLedMatrix(rowsBlack, columnsBlack);
+            if (detected.equals(FireflyLuciferin.ledMatrixInUse)) {
+                verdicts = 0;
+            } else if (++verdicts >= SWITCH_VERDICTS) {
+                verdicts = 0;
+                switchLedMatrix(detected);
+            }
+        }
+        probe = 0;
+        rowsBlack = true;
+        columnsBlack = true;
+
+    }
+
+    /**
+     * Matrix matching the black bars found
+     * @param rowsBlack true if there are black bars at the top and at the bottom
+     * @param columnsBlack true if there are black bars at the sides
+     * @return matrix to use
+     */
+    static String getLedMatrix(boolean rowsBlack, boolean columnsBlack) {
+
+        if (rowsBlack) {
+            return Constants.LETTERBOX;
+        } else if (columnsBlack && FireflyLuciferin.config.getLedMatrixInUse(Constants.PILLARBOX) != null) {
+            return Constants.PILLARBOX;
+        }
+        return Constants.FULLSCREEN;
+
+    }
+
+    /**
+     * Check if a row is black
+     * @param pixels packed RGB pixels
+     * @param stride scanline stride in pixels
+     * @param width row width
+     * @param y row index
+     * @return true if every sampled pixel is black
+     */
+    static boolean isBlack(IntBuffer pixels, int stride, int width, int y) {
+
+        int offset = y * stride;
+        for (int x = 0; x < width; x += SAMPLE_STEP) {
+            int rgb = pixels.get(offset + x);
+            if ((rgb >> 16 & 0xFF) > BLACK_THRESHOLD || (rgb >> 8 & 0xFF) > BLACK_THRESHOLD || (rgb & 0xFF) > BLACK_THRESHOLD) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    /**
+     * Check if a column is black
+     * @param pixels packed RGB pixels
+     * @param stride scanline stride in pixels
+     * @param height column height
+     * @param x column index
+     * @return true if every sampled pixel is black
+     */
+    static boolean isBlackColumn(IntBuffer pixels, int stride, int height, int x) {
+
+        for (int y = 0; y < height; y += SAMPLE_STEP) {
+            int rgb = pixels.get(y * stride + x);
+            if ((rgb >> 16 & 0xFF) > BLACK_THRESHOLD || (rgb >> 8 & 0xFF) > BLACK_THRESHOLD || (rgb & 0xFF) > BLACK_THRESHOLD) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    /**
+     * Make a matrix the one in use, producers pick it up on their next frame
+     * @param ledMatrix matrix to use
+     */
+    void switchLedMatrix(String ledMatrix) {
+
+        if (FireflyLuciferin.switchLedMatrix(ledMatrix) && FireflyLuciferin.guiManager != null) {
+            EventQueue.invokeLater(() -> FireflyLuciferin.guiManager.selectGrabMode(ledMatrix));
+        }
+
+    }
+
+}
@@ -0,0 +1,402 @@
+/*
+  SamplingPlan.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import lombok.Getter;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.LEDCoordinate;
+
+import java.awt.*;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Sampling plan compiled from a LED matrix.
+ * LED coordinates are resolved once, every frame reads the pixels straight from the screen buffer.
+ * A plan is immutable, it can be shared between producers.
+ */
+@Getter
+public class SamplingPlan {
+
+    // Distance in pixel between two samples
+    static final int SKIP_PIXEL = 5;
+    // 6 pixel for X axis and 6 pixel for Y axis
+    static final int PIXEL_TO_USE = 6;
+
+    // Number of LEDs in the frame, a plan can sample only a subset of them
+    private final int ledNumber;
+    // Distance in pixel between two samples of this plan
+    private final int skipPixel;
+    // Index in the frame of every sampled LED
+    private final int[] ledIndexes;
+    private final int[] xCoordinates;
+    private final int[] yCoordinates;
+    // Samples never go past these coordinates, like the original capture the sampled area is pushed back into the screen
+    private final int xLimit;
+    private final int yLimit;
+
+    /**
+     * Compile a LED matrix into a sampling plan
+     * @param ledMatrix LED matrix in use
+     * @param osScaling OS scaling percentage applied to the coordinates, use 100 for native resolution
+     */
+    public SamplingPlan(LinkedHashMap<Integer, LEDCoordinate> ledMatrix, int osScaling) {
+
+        ledNumber = ledMatrix.size();
+        skipPixel = SKIP_PIXEL;
+        ledIndexes = new int[ledNumber];
+        xCoordinates = new int[ledNumber];
+        yCoordinates = new int[ledNumber];
+        xLimit = Integer.MAX_VALUE;
+        yLimit = Integer.MAX_VALUE;
+        ledMatrix.forEach((key, coordinate) -> {
+            ledIndexes[key - 1] = key - 1;
+            xCoordinates[key - 1] = (coordinate.getX() * 100) / osScaling;
+            yCoordinates[key - 1] = (coordinate.getY() * 100) / osScaling;
+        });
+
+    }
+
+    /**
+     * Constructor used to derive a plan from a compiled one
+     * @param ledNumber number of LEDs in the frame
+     * @param skipPixel distance in pixel between two samples
+     * @param ledIndexes index in the frame of every sampled LED
+     * @param xCoordinates X coordinate of every sampled LED
+     * @param yCoordinates Y coordinate of every sampled LED
+     * @param xLimit highest X coordinate sampled
+     * @param yLimit highest Y coordinate sampled
+     */
+    private SamplingPlan(int ledNumber, int skipPixel, int[] ledIndexes, int[] xCoordinates, int[] yCoordinates, int xLimit, int yLimit) {
+
+        this.ledNumber = ledNumber;
+        this.skipPixel = skipPixel;
+        this.ledIndexes = ledIndexes;
+        this.xCoordinates = xCoordinates;
+        this.yCoordinates = yCoordinates;
+        this.xLimit = xLimit;
+        this.yLimit = yLimit;
+
+    }
+
+    /**
+     * Sample every LED from a packed RGB buffer
+     * @param pixels packed RGB pixels, one int per pixel, scanline stride equals to width
+     * @param width buffer width
+     * @param height buffer height
+     * @return array of LEDs containing the avg color to be displayed on the LED strip
+     */
+    public Color[] getColors(IntBuffer pixels, int width, int height) {
+
+        Color[] leds = new Color[ledNumber];
+        sample(pixels, width, height, leds);
+        return leds;
+
+    }
+
+    /**
+     * Sample the LEDs in this plan from a packed RGB buffer
+     * @param pixels packed RGB pixels, one int per pixel, scanline stride equals to width
+     * @param width buffer width
+     * @param height buffer height
+     * @param leds frame where to write the sampled LEDs, LEDs not in this plan are left untouched
+     */
+    public void sample(IntBuffer pixels, int width, int height, Color[] leds) {
+
+        int[] gammaTable = FireflyLuciferin.runtimeConfig.get().getGammaTable();
+        for (int i = 0; i < ledIndexes.length; i++) {
+            leds[ledIndexes[i]] = getAverageColor(pixels, width, height, xCoordinates[i], yCoordinates[i], skipPixel, xLimit, yLimit, gammaTable);
+        }
+
+    }
+
+    /**
+     * Sample only some of the LEDs in this plan
+     * @param pixels packed RGB pixels, one int per pixel, scanline stride equals to width
+     * @param width buffer width
+     * @param height buffer height
+     * @param leds frame where to write the sampled LEDs, other LEDs are left untouched
+     * @param positions position in this plan of the LEDs to sample
+     */
+    public void sample(IntBuffer pixels, int width, int height, Color[] leds, int[] positions) {
+
+        int[] gammaTable = FireflyLuciferin.runtimeConfig.get().getGammaTable();
+        for (int i : positions) {
+            leds[ledIndexes[i]] = getAverageColor(pixels, width, height, xCoordinates[i], yCoordinates[i], skipPixel, xLimit, yLimit, gammaTable);
+        }
+
+    }
+
+    /**
+     * Find the LEDs whose sampled area intersects a damaged area
+     * @param damage damaged rectangles
+     * @param originX X coordinate of the plan origin in the damage coordinate space
+     * @param originY Y coordinate of the plan origin in the damage coordinate space
+     * @return position in this plan of the damaged LEDs
+     */
+    public int[] getDamagedLeds(List<Rectangle> damage, int originX, int originY) {
+
+        int[] positions = new int[ledIndexes.length];
+        int count = 0;
+        for (int i = 0; i < ledIndexes.length; i++) {
+            Rectangle sampledArea = getSampledArea(i);
+            sampledArea.translate(originX, originY);
+            for (Rectangle damagedArea : damage) {
+                if (damagedArea.intersects(sampledArea)) {
+                    positions[count++] = i;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(positions, count);
+
+    }
+
+    /**
+     * Restrict the plan to a range of LEDs
+     * @param from first LED index, inclusive
+     * @param to last LED index, exclusive
+     * @return a plan sampling only the LEDs in the range
+     */
+    public SamplingPlan restrict(int from, int to) {
+
+        return filter(i -> ledIndexes[i] >= from && ledIndexes[i] < to);
+
+    }
+
+    /**
+     * Split the plan in bands, one for every screen edge.
+     * Every LED is assigned to the screen edge nearest to its coordinates.
+     * @param screen screen rectangle
+     * @return top, right, bottom and left plans, edges without LEDs are skipped
+     */
+    public List<SamplingPlan> splitByEdge(Rectangle screen) {
+
+        int[] nearestEdge = new int[ledIndexes.length];
+        for (int i = 0; i < ledIndexes.length; i++) {
+            int[] distances = {yCoordinates[i] - screen.y, (screen.x + screen.width) - xCoordinates[i],
+                    (screen.y + screen.height) - yCoordinates[i], xCoordinates[i] - screen.x};
+            for (int edge = 1; edge < distances.length; edge++) {
+                if (distances[edge] < distances[nearestEdge[i]]) {
+                    nearestEdge[i] = edge;
+                }
+            }
+        }
+        List<SamplingPlan> bands = new ArrayList<>();
+        for (int edge = 0; edge < 4; edge++) {
+            int bandEdge = edge;
+            SamplingPlan band = filter(i -> nearestEdge[i] == bandEdge);
+            if (band.getLedIndexes().length > 0) {
+                bands.add(band);
+            }
+        }
+        return bands;
+
+    }
+
+    /**
+     * Derive a plan containing only some of the sampled LEDs
+     * @param keep position in this plan of the LEDs to keep
+     * @return derived plan
+     */
+    private SamplingPlan filter(IntPredicate keep) {
+
+        int count = 0;
+        for (int i = 0; i < ledIndexes.length; i++) {
+            if (keep.test(i)) {
+                count++;
+            }
+        }
+        int[] indexes = new int[count], x = new int[count], y = new int[count];
+        int j = 0;
+        for (int i = 0; i < ledIndexes.length; i++) {
+            if (keep.test(i)) {
+                indexes[j] = ledIndexes[i];
+                x[j] = xCoordinates[i];
+                y[j] = yCoordinates[i];
+                j++;
+            }
+        }
+        return new SamplingPlan(ledNumber, skipPixel, indexes, x, y, xLimit, yLimit);
+
+    }
+
+    /**
+     * Translate the plan, used when sampling a capture that doesn't start at the screen origin
+     * @param originX X coordinate of the capture origin
+     * @param originY Y coordinate of the capture origin
+     * @return a plan with coordinates relative to the capture origin
+     */
+    public SamplingPlan translate(int originX, int originY) {
+
+        int[] x = new int[xCoordinates.length], y = new int[yCoordinates.length];
+        for (int i = 0; i < ledIndexes.length; i++) {
+            x[i] = xCoordinates[i] - originX;
+            y[i] = yCoordinates[i] - originY;
+        }
+        return new SamplingPlan(ledNumber, skipPixel, ledIndexes.clone(), x, y, translateLimit(xLimit, originX), translateLimit(yLimit, originY));
+
+    }
+
+    /**
+     * Map the plan proportionally into an area of a different size
+     * @param sourceWidth width the plan was compiled for
+     * @param sourceHeight height the plan was compiled for
+     * @param targetWidth new width
+     * @param targetHeight new height
+     * @return a plan with coordinates mapped into the new area
+     */
+    public SamplingPlan rescale(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+
+        int[] x = new int[xCoordinates.length], y = new int[yCoordinates.length];
+        for (int i = 0; i < ledIndexes.length; i++) {
+            x[i] = (int) (((long) xCoordinates[i] * targetWidth) / sourceWidth);
+            y[i] = (int) (((long) yCoordinates[i] * targetHeight) / sourceHeight);
+        }
+        return new SamplingPlan(ledNumber, skipPixel, ledIndexes.clone(), x, y, rescaleLimit(xLimit, sourceWidth, targetWidth),
+                rescaleLimit(yLimit, sourceHeight, targetHeight));
+
+    }
+
+    /**
+     * Scale the plan down, used when sampling a downscaled capture
+     * @param divisor scale divisor
+     * @return a plan with coordinates and sample distance divided by the divisor
+     */
+    public SamplingPlan scale(int divisor) {
+
+        int[] x = new int[xCoordinates.length], y = new int[yCoordinates.length];
+        for (int i = 0; i < ledIndexes.length; i++) {
+            x[i] = xCoordinates[i] / divisor;
+            y[i] = yCoordinates[i] / divisor;
+        }
+        return new SamplingPlan(ledNumber, Math.max(1, skipPixel / divisor), ledIndexes.clone(), x, y,
+                rescaleLimit(xLimit, divisor, 1), rescaleLimit(yLimit, divisor, 1));
+
+    }
+
+    /**
+     * Keep the sampled area inside the screen, LEDs near the right and bottom edges sample the last pixels
+     * available instead of going past the screen. Same limit used by the capture before plans were compiled.
+     * @param screen screen rectangle, in the coordinates of the plan
+     * @return a plan sampling inside the screen
+     */
+    public SamplingPlan clamp(Rectangle screen) {
+
+        int pixelSpan = skipPixel * PIXEL_TO_USE;
+        return new SamplingPlan(ledNumber, skipPixel, ledIndexes, xCoordinates, yCoordinates,
+                Math.min(xLimit, screen.x + screen.width - pixelSpan), Math.min(yLimit, screen.y + screen.height - pixelSpan));
+
+    }
+
+    /**
+     * Move a sampling limit with the plan origin
+     * @param limit sampling limit
+     * @param origin new origin
+     * @return limit relative to the new origin
+     */
+    private static int translateLimit(int limit, int origin) {
+
+        return limit == Integer.MAX_VALUE ? limit : limit - origin;
+
+    }
+
+    /**
+     * Map a sampling limit proportionally into an area of a different size
+     * @param limit sampling limit
+     * @param source size the limit was computed for
+     * @param target new size
+     * @return limit in the new area
+     */
+    private static int rescaleLimit(int limit, int source, int target) {
+
+        return limit == Integer.MAX_VALUE ? limit : (int) (((long) limit * target) / source);
+
+    }
+
+    /**
+     * Area sampled for a LED, samples stop at the sampling limits
+     * @param i position of the LED in this plan
+     * @return sampled area
+     */
+    private Rectangle getSampledArea(int i) {
+
+        int sampleSpan = skipPixel * (PIXEL_TO_USE - 1);
+        int x = Math.min(xCoordinates[i], xLimit), y = Math.min(yCoordinates[i], yLimit);
+        return new Rectangle(x, y, Math.min(xCoordinates[i] + sampleSpan, xLimit) - x + 1, Math.min(yCoordinates[i] + sampleSpan, yLimit) - y + 1);
+
+    }
+
+    /**
+     * Smallest area containing every pixel sampled by this plan
+     * @param screen screen rectangle, bounds never exceed it
+     * @return bounding rectangle, empty if the plan has no LEDs
+     */
+    public Rectangle getBounds(Rectangle screen) {
+
+        if (ledIndexes.length == 0) {
+            return new Rectangle();
+        }
+        Rectangle bounds = getSampledArea(0);
+        for (int i = 1; i < ledIndexes.length; i++) {
+            bounds.add(getSampledArea(i));
+        }
+        return bounds.intersection(screen);
+
+    }
+
+    /**
+     * Get the average color from the screen buffer section
+     * @param pixels packed RGB pixels
+     * @param width buffer width
+     * @param height buffer height
+     * @param xCoordinate LED X coordinate
+     * @param yCoordinate LED Y coordinate
+     * @param skipPixel distance in pixel between two samples
+     * @param xLimit highest X coordinate sampled
+     * @param yLimit highest Y coordinate sampled
+     * @param gammaTable gamma corrected value of every color channel value
+     * @return the average color
+     */
+    static Color getAverageColor(IntBuffer pixels, int width, int height, int xCoordinate, int yCoordinate, int skipPixel,
+                                 int xLimit, int yLimit, int[] gammaTable) {
+
+        int r = 0, g = 0, b = 0;
+        int pickNumber = 0;
+        for (int x = 0; x < PIXEL_TO_USE; x++) {
+            // The buffer bound only protects from plans not clamped to the screen
+            int offsetX = Math.max(0, Math.min(Math.min(xCoordinate + (skipPixel * x), xLimit), width - 1));
+            for (int y = 0; y < PIXEL_TO_USE; y++) {
+                int offsetY = Math.max(0, Math.min(Math.min(yCoordinate + (skipPixel * y), yLimit), height - 1));
+                int rgb = pixels.get(offsetX + (offsetY * width));
+                r += rgb >> 16 & 0xFF;
+                g += rgb >> 8 & 0xFF;
+                b += rgb & 0xFF;
+                pickNumber++;
+            }
+        }
+        return new Color(gammaTable[r / pickNumber], gammaTable[g / pickNumber], gammaTable[b / pickNumber]);
+
+    }
+
+}
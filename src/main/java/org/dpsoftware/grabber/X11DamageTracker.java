@@ -0,0 +1,158 @@
+/*
+  X11DamageTracker.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.platform.unix.X11;
+import com.sun.jna.ptr.IntByReference;
+import org.dpsoftware.config.Constants;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * XDamage tracker, reports the areas of a drawable changed since the previous frame.
+ * Damage is accumulated by the X server, every call to {@link #getDamage()} moves it into
+ * an XFixes region and clears it, no event is processed except for draining the queue.
+ * An instance owns its own display connection, it must not be shared between threads.
+ */
+public class X11DamageTracker {
+
+    // Report a single event when the damage goes from empty to non empty, rectangles are fetched on demand
+    static final int X_DAMAGE_REPORT_NON_EMPTY = 3;
+
+    private final X11.Display display;
+    private final NativeLong damage;
+    private final NativeLong region;
+    private final X11.XEvent event = new X11.XEvent();
+
+    /**
+     * Constructor, start tracking the damage of a drawable
+     * @param displayName X11 display, null for the default one
+     * @param window window to track, null for the root window
+     */
+    public X11DamageTracker(String displayName, X11.Window window) {
+
+        X11 x11 = X11.INSTANCE;
+        display = x11.XOpenDisplay(displayName);
+        if (display == null) {
+            throw new IllegalStateException(Constants.X11_CANT_OPEN_DISPLAY);
+        }
+        IntByReference eventBase = new IntByReference();
+        IntByReference errorBase = new IntByReference();
+        if (!XDamage.INSTANCE.XDamageQueryExtension(display, eventBase, errorBase)) {
+            x11.XCloseDisplay(display);
+            throw new IllegalStateException(Constants.X11_NO_DAMAGE);
+        }
+        X11.Window drawable = window != null ? window : x11.XDefaultRootWindow(display);
+        X11.Display connection = display;
+        damage = X11WindowFinder.trapErrors(() -> {
+            NativeLong created = XDamage.INSTANCE.XDamageCreate(connection, drawable, X_DAMAGE_REPORT_NON_EMPTY);
+            // The window may be gone already, the error is reported by the round trip
+            x11.XSync(connection, false);
+            return created;
+        });
+        region = XFixes.INSTANCE.XFixesCreateRegion(display, null, 0);
+
+    }
+
+    /**
+     * Areas changed since the previous call, the accumulated damage is cleared
+     * @return damaged rectangles relative to the tracked drawable, empty if nothing changed
+     */
+    public List<Rectangle> getDamage() {
+
+        // The tracked window can be destroyed at any time
+        return X11WindowFinder.trapErrors(this::fetchDamage);
+
+    }
+
+    /**
+     * Move the accumulated damage into the region and read its rectangles
+     * @return damaged rectangles relative to the tracked drawable
+     */
+    List<Rectangle> fetchDamage() {
+
+        X11 x11 = X11.INSTANCE;
+        // Notify events are not used, drain them so they don't pile up in the client queue
+        while (x11.XPending(display) > 0) {
+            x11.XNextEvent(display, event);
+        }
+        XDamage.INSTANCE.XDamageSubtract(display, damage, new NativeLong(0), region);
+        IntByReference count = new IntByReference();
+        Pointer rectangles = XFixes.INSTANCE.XFixesFetchRegion(display, region, count);
+        List<Rectangle> damagedAreas = new ArrayList<>(count.getValue());
+        if (rectangles != null) {
+            // XRectangle, short x, short y, unsigned short width, unsigned short height
+            for (int i = 0; i < count.getValue(); i++) {
+                long offset = i * 8L;
+                damagedAreas.add(new Rectangle(rectangles.getShort(offset), rectangles.getShort(offset + 2),
+                        rectangles.getShort(offset + 4) & 0xFFFF, rectangles.getShort(offset + 6) & 0xFFFF));
+            }
+            x11.XFree(rectangles);
+        }
+        return damagedAreas;
+
+    }
+
+    /**
+     * Stop tracking and release the display connection
+     */
+    public void close() {
+
+        X11WindowFinder.trapErrors(() -> {
+            XFixes.INSTANCE.XFixesDestroyRegion(display, region);
+            XDamage.INSTANCE.XDamageDestroy(display, damage);
+            X11.INSTANCE.XCloseDisplay(display);
+        });
+
+    }
+
+    /**
+     * XDamage extension, libXdamage
+     */
+    public interface XDamage extends Library {
+
+        XDamage INSTANCE = Native.load("Xdamage", XDamage.class);
+
+        boolean XDamageQueryExtension(X11.Display display, IntByReference eventBase, IntByReference errorBase);
+        NativeLong XDamageCreate(X11.Display display, X11.Drawable drawable, int level);
+        void XDamageDestroy(X11.Display display, NativeLong damage);
+        void XDamageSubtract(X11.Display display, NativeLong damage, NativeLong repair, NativeLong parts);
+
+    }
+
+    /**
+     * XFixes extension, libXfixes
+     */
+    public interface XFixes extends Library {
+
+        XFixes INSTANCE = Native.load("Xfixes", XFixes.class);
+
+        NativeLong XFixesCreateRegion(X11.Display display, Pointer rectangles, int nrectangles);
+        void XFixesDestroyRegion(X11.Display display, NativeLong region);
+        Pointer XFixesFetchRegion(X11.Display display, NativeLong region, IntByReference nrectangles);
+
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+  X11ShmGrabber.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import com.sun.jna.*;
+import com.sun.jna.platform.unix.X11;
+import lombok.Getter;
+import org.dpsoftware.config.Constants;
+
+import java.awt.*;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * MIT-SHM X11 screen grabber using Java Native Access API.
+ * The X server writes the screen area straight into a shared memory segment allocated once,
+ * the segment is exposed to the sampler as a direct buffer, there is no copy into a BufferedImage.
+ * An instance owns its own display connection, it must not be shared between threads.
+ * When MIT-SHM can't be set up everything allocated so far is released and an IllegalStateException is thrown,
+ * the capture context falls back to CPU capture.
+ */
+public class X11ShmGrabber {
+
+    // ZPixmap image format
+    static final int Z_PIXMAP = 2;
+    static final int IPC_PRIVATE = 0;
+    static final int IPC_CREAT = 01000;
+    static final int IPC_RMID = 0;
+    // shmget and shmat failure
+    static final int SHM_FAILED = -1;
+    static final NativeLong ALL_PLANES = new NativeLong(-1L);
+
+    private final X11.Display display;
+    private final X11.Window window;
+    private final XShmSegmentInfo shmInfo = new XShmSegmentInfo();
+    private final Pointer image;
+    @Getter private final int width;
+    @Getter private final int height;
+    // Scanline stride in pixels
+    @Getter private final int stride;
+    private final IntBuffer pixels;
+    private final Rectangle rect;
+
+    /**
+     * Constructor, allocate the shared memory segment used for every capture
+     * @param displayName X11 display, null for the default one
+     * @param window window to capture, null for the root window
+     * @param rect area to capture, relative to the window
+     */
+    public X11ShmGrabber(String displayName, X11.Window window, Rectangle rect) {
+
+        X11 x11 = X11.INSTANCE;
+        display = x11.XOpenDisplay(displayName);
+        if (display == null) {
+            throw new IllegalStateException(Constants.X11_CANT_OPEN_DISPLAY);
+        }
+        int screen = x11.XDefaultScreen(display);
+        this.window = window != null ? window : x11.XRootWindow(display, screen);
+        this.rect = rect;
+        width = rect.width;
+        height = rect.height;
+        shmInfo.shmid = SHM_FAILED;
+        Pointer createdImage = null;
+        try {
+            if (!XShm.INSTANCE.XShmQueryExtension(display)) {
+                throw new IllegalStateException(Constants.X11_NO_SHM);
+            }
+            createdImage = XShm.INSTANCE.XShmCreateImage(display, x11.XDefaultVisual(display, screen),
+                    Xlib.INSTANCE.XDefaultDepth(display, screen), Z_PIXMAP, null, shmInfo, width, height);
+            if (createdImage == null) {
+                throw new IllegalStateException(Constants.X11_SHM_CREATE_IMAGE_FAILED);
+            }
+            XImage xImage = new XImage(createdImage);
+            stride = xImage.bytes_per_line / 4;
+            int size = xImage.bytes_per_line * height;
+            shmInfo.shmid = LibC.INSTANCE.shmget(IPC_PRIVATE, new NativeLong(size), IPC_CREAT | 0600);
+            if (shmInfo.shmid == SHM_FAILED) {
+                throw new IllegalStateException(Constants.X11_SHM_SEGMENT_FAILED);
+            }
+            shmInfo.shmaddr = LibC.INSTANCE.shmat(shmInfo.shmid, null, 0);
+            if (Pointer.nativeValue(shmInfo.shmaddr) == SHM_FAILED) {
+                shmInfo.shmaddr = null;
+                throw new IllegalStateException(Constants.X11_SHM_SEGMENT_FAILED);
+            }
+            shmInfo.readOnly = 0;
+            shmInfo.write();
+            xImage.data = shmInfo.shmaddr;
+            xImage.writeField("data");
+            // A remote X server can't attach the segment, the error is reported by the round trip
+            X11.Display connection = display;
+            if (!X11WindowFinder.trapErrors(() -> XShm.INSTANCE.XShmAttach(connection, shmInfo)
+                    && x11.XSync(connection, false) >= 0 && X11WindowFinder.getTrappedError() == 0)) {
+                throw new IllegalStateException(Constants.X11_SHM_ATTACH_FAILED);
+            }
+            // Segment is destroyed as soon as every process detaches from it, even if Luciferin crashes
+            LibC.INSTANCE.shmctl(shmInfo.shmid, IPC_RMID, null);
+            pixels = shmInfo.shmaddr.getByteBuffer(0, size).order(ByteOrder.nativeOrder()).asIntBuffer();
+            image = createdImage;
+        } catch (IllegalStateException e) {
+            // Not attached yet, release what has been allocated in reverse order
+            if (shmInfo.shmaddr != null) {
+                LibC.INSTANCE.shmdt(shmInfo.shmaddr);
+            }
+            if (shmInfo.shmid != SHM_FAILED) {
+                LibC.INSTANCE.shmctl(shmInfo.shmid, IPC_RMID, null);
+            }
+            if (createdImage != null) {
+                x11.XFree(createdImage);
+            }
+            x11.XCloseDisplay(display);
+            throw e;
+        }
+
+    }
+
+    /**
+     * Capture the area into the shared memory segment
+     * @return packed RGB pixels of the area, backed by the shared memory segment
+     */
+    public IntBuffer capture() {
+
+        // Fails when the captured window has been destroyed or the area is outside of the screen
+        if (!X11WindowFinder.trapErrors(() -> XShm.INSTANCE.XShmGetImage(display, window, image, rect.x, rect.y, ALL_PLANES))) {
+            throw new IllegalStateException(Constants.X11_SHM_GET_IMAGE_FAILED);
+        }
+        return pixels;
+
+    }
+
+    /**
+     * Detach and release the shared memory segment and the display connection
+     */
+    public void close() {
+
+        X11WindowFinder.trapErrors(() -> {
+            XShm.INSTANCE.XShmDetach(display, shmInfo);
+            X11.INSTANCE.XFree(image);
+            LibC.INSTANCE.shmdt(shmInfo.shmaddr);
+            X11.INSTANCE.XCloseDisplay(display);
+        });
+
+    }
+
+    /**
+     * MIT-SHM extension, libXext
+     */
+    public interface XShm extends Library {
+
+        XShm INSTANCE = Native.load("Xext", XShm.class);
+
+        boolean XShmQueryExtension(X11.Display display);
+        Pointer XShmCreateImage(X11.Display display, X11.Visual visual, int depth, int format, Pointer data,
+                                XShmSegmentInfo shmInfo, int width, int height);
+        boolean XShmAttach(X11.Display display, XShmSegmentInfo shmInfo);
+        boolean XShmDetach(X11.Display display, XShmSegmentInfo shmInfo);
+        boolean XShmGetImage(X11.Display display, X11.Window drawable, Pointer image, int x, int y, NativeLong planeMask);
+
+    }
+
+    /**
+     * Xlib functions not mapped by JNA platform
+     */
+    public interface Xlib extends Library {
+
+        Xlib INSTANCE = Native.load("X11", Xlib.class);
+
+        int XDefaultDepth(X11.Display display, int screen);
+
+    }
+
+    /**
+     * System V shared memory, libc
+     */
+    public interface LibC extends Library {
+
+        LibC INSTANCE = Native.load("c", LibC.class);
+
+        int shmget(int key, NativeLong size, int shmflg);
+        Pointer shmat(int shmid, Pointer shmaddr, int shmflg);
+        int shmdt(Pointer shmaddr);
+        int shmctl(int shmid, int cmd, Pointer buf);
+
+    }
+
+    /**
+     * XShmSegmentInfo struct
+     */
+    @Structure.FieldOrder({"shmseg", "shmid", "shmaddr", "readOnly"})
+    public static class XShmSegmentInfo extends Structure {
+
+        public NativeLong shmseg;
+        public int shmid;
+        public Pointer shmaddr;
+        public int readOnly;
+
+    }
+
+    /**
+     * XImage struct, only the fields used by the grabber are read
+     */
+    @Structure.FieldOrder({"width", "height", "xoffset", "format", "data", "byte_order", "bitmap_unit", "bitmap_bit_order",
+            "bitmap_pad", "depth", "bytes_per_line", "bits_per_pixel", "red_mask", "green_mask", "blue_mask", "obdata"})
+    public static class XImage extends Structure {
+
+        public int width;
+        public int height;
+        public int xoffset;
+        public int format;
+        public Pointer data;
+        public int byte_order;
+        public int bitmap_unit;
+        public int bitmap_bit_order;
+        public int bitmap_pad;
+        public int depth;
+        public int bytes_per_line;
+        public int bits_per_pixel;
+        public NativeLong red_mask;
+        public NativeLong green_mask;
+        public NativeLong blue_mask;
+        public Pointer obdata;
+
+        public XImage(Pointer pointer) {
+            super(pointer);
+            read();
+        }
+
+    }
+
+}
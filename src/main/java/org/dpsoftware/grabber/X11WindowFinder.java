@@ -0,0 +1,225 @@
+/*
+  X11WindowFinder.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.grabber;
+
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.platform.unix.X11;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.NativeLongByReference;
+import com.sun.jna.ptr.PointerByReference;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+/**
+ * Find X11 windows by title or class, used to capture a single window instead of the entire desktop.
+ * Queries share a single display connection owned by the finder, opened on first use.
+ * X11 calls that can fail run through {@link #trapErrors(Supplier)}, the Xlib error handler is process wide
+ * and AWT relies on its own one, so the previous handler is restored as soon as the calls return.
+ */
+public final class X11WindowFinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(X11WindowFinder.class);
+
+    // Log X11 errors instead of terminating the process, keep a reference so the callback is never collected
+    private static final X11.XErrorHandler ERROR_HANDLER = (display, errorEvent) -> {
+        trappedError = errorEvent.error_code;
+        logger.debug(Constants.X11_ERROR, errorEvent.error_code, errorEvent.request_code);
+        return 0;
+    };
+    // Code of the last error trapped by the running calls, 0 if none
+    private static int trappedError;
+    // Connection used by the window queries, null until the first query
+    private static X11.Display display;
+
+    private X11WindowFinder() {
+    }
+
+    /**
+     * Run X11 calls that can fail, a captured window can disappear at any time and Xlib default error handler
+     * terminates the process. Errors are logged while the calls run, the previous handler is restored afterwards.
+     * Errors of requests without a reply are reported later, the calls must end with a round trip like XSync.
+     * @param calls X11 calls
+     * @param <T> result type
+     * @return result of the calls
+     */
+    public static synchronized <T> T trapErrors(Supplier<T> calls) {
+
+        trappedError = 0;
+        X11.XErrorHandler previousHandler = X11.INSTANCE.XSetErrorHandler(ERROR_HANDLER);
+        try {
+            return calls.get();
+        } finally {
+            X11.INSTANCE.XSetErrorHandler(previousHandler);
+        }
+
+    }
+
+    /**
+     * Run X11 calls that can fail and return nothing
+     * @param calls X11 calls
+     */
+    public static void trapErrors(Runnable calls) {
+
+        trapErrors(() -> {
+            calls.run();
+            return null;
+        });
+
+    }
+
+    /**
+     * Code of the last error trapped, only meaningful inside the calls run by {@link #trapErrors(Supplier)}
+     * @return X11 error code, 0 if no error occurred
+     */
+    public static int getTrappedError() {
+
+        return trappedError;
+
+    }
+
+    /**
+     * Connection shared by the window queries, it's kept for the lifetime of the process
+     * @return display connection, null if the display can't be opened
+     */
+    private static X11.Display getDisplay() {
+
+        if (display == null) {
+            display = X11.INSTANCE.XOpenDisplay(null);
+        }
+        return display;
+
+    }
+
+    /**
+     * Find the first viewable window whose title contains the text or whose class equals to it
+     * @param titleOrClass window title or WM_CLASS, case insensitive
+     * @return window id, null if no window matches
+     */
+    public static synchronized X11.Window findWindow(String titleOrClass) {
+
+        X11.Display display = getDisplay();
+        if (display == null) {
+            return null;
+        }
+        return trapErrors(() -> {
+            X11 x11 = X11.INSTANCE;
+            String match = titleOrClass.toLowerCase();
+            Deque<X11.Window> windows = new ArrayDeque<>();
+            windows.add(x11.XDefaultRootWindow(display));
+            while (!windows.isEmpty()) {
+                X11.Window window = windows.poll();
+                if (isViewable(display, window) && matches(display, window, match)) {
+                    return window;
+                }
+                X11.WindowByReference root = new X11.WindowByReference();
+                X11.WindowByReference parent = new X11.WindowByReference();
+                PointerByReference children = new PointerByReference();
+                IntByReference childrenCount = new IntByReference();
+                if (x11.XQueryTree(display, window, root, parent, children, childrenCount) != 0 && children.getValue() != null) {
+                    for (int i = 0; i < childrenCount.getValue(); i++) {
+                        windows.add(new X11.Window(children.getValue().getNativeLong((long) i * Native.LONG_SIZE).longValue()));
+                    }
+                    x11.XFree(children.getValue());
+                }
+            }
+            return null;
+        });
+
+    }
+
+    /**
+     * Window size
+     * @param window window id
+     * @return window size, empty if the window doesn't exist anymore
+     */
+    public static synchronized Dimension getSize(X11.Window window) {
+
+        X11.Display display = getDisplay();
+        if (display == null) {
+            return new Dimension();
+        }
+        X11.XWindowAttributes attributes = new X11.XWindowAttributes();
+        if (trapErrors(() -> X11.INSTANCE.XGetWindowAttributes(display, window, attributes)) == 0) {
+            return new Dimension();
+        }
+        return new Dimension(attributes.width, attributes.height);
+
+    }
+
+    /**
+     * Check if a window is viewable
+     * @param display display connection
+     * @param window window id
+     * @return true if the window is mapped and all its ancestors are mapped
+     */
+    static boolean isViewable(X11.Display display, X11.Window window) {
+
+        X11.XWindowAttributes attributes = new X11.XWindowAttributes();
+        return X11.INSTANCE.XGetWindowAttributes(display, window, attributes) != 0 && attributes.map_state == X11.IsViewable;
+
+    }
+
+    /**
+     * Check if the window title or class matches
+     * @param display display connection
+     * @param window window id
+     * @param match lower case title or class
+     * @return true if the window matches
+     */
+    static boolean matches(X11.Display display, X11.Window window, String match) {
+
+        PointerByReference name = new PointerByReference();
+        if (X11.INSTANCE.XFetchName(display, window, name) != 0 && name.getValue() != null) {
+            String title = name.getValue().getString(0);
+            X11.INSTANCE.XFree(name.getValue());
+            if (title.toLowerCase().contains(match)) {
+                return true;
+            }
+        }
+        // WM_CLASS contains two null terminated strings, instance name and class name
+        X11.AtomByReference actualType = new X11.AtomByReference();
+        IntByReference actualFormat = new IntByReference();
+        NativeLongByReference itemCount = new NativeLongByReference();
+        NativeLongByReference bytesAfter = new NativeLongByReference();
+        PointerByReference property = new PointerByReference();
+        if (X11.INSTANCE.XGetWindowProperty(display, window, X11.XA_WM_CLASS, new NativeLong(0), new NativeLong(256), false,
+                X11.XA_STRING, actualType, actualFormat, itemCount, bytesAfter, property) == 0 && property.getValue() != null) {
+            Pointer value = property.getValue();
+            String wmClass = new String(value.getByteArray(0, itemCount.getValue().intValue()), StandardCharsets.ISO_8859_1);
+            X11.INSTANCE.XFree(value);
+            for (String className : wmClass.split("\0")) {
+                if (className.equalsIgnoreCase(match)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+
+    }
+
+}
@@ -28,8 +28,6 @@ import javafx.scene.layout.Region;
 import javafx.stage.Stage;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
-import lombok.SneakyThrows;
-import org.dpsoftware.config.Configuration;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.MQTTManager;
 import org.dpsoftware.config.Constants;
@@ -42,7 +40,7 @@ import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -188,7 +186,7 @@ public class GUIManager extends JFrame {
 
         return actionEvent -> {
             if (actionEvent.getActionCommand() == null) {
-                if (FireflyLuciferin.RUNNING) {
+                if (FireflyLuciferin.captureStateMachine.isStarted()) {
                     stopCapturingThreads();
                 } else {
                     startCapturingThreads();
@@ -199,10 +197,11 @@ public class GUIManager extends JFrame {
                     case Constants.START -> startCapturingThreads();
                     case Constants.SETTINGS -> showSettingsDialog();
                     case Constants.INFO -> showFramerateDialog();
-                    default -> {
-                        stopCapturingThreads();
+                    default -> stopCapturingThreads().whenComplete((stopped, throwable) -> {
+                        // Exit once capture is stopped, the tray thread is not blocked meanwhile
+                        FireflyLuciferin.executorManager.shutdown();
                         System.exit(0);
-                    }
+                    });
                 }
             }
         };
@@ -217,22 +216,11 @@ public class GUIManager extends JFrame {
         FireflyLuciferin.config.getLedMatrix().forEach((ledMatrixKey, ledMatrix) -> {
 
             CheckboxMenuItem checkboxMenuItem = new CheckboxMenuItem(ledMatrixKey,
-                    ledMatrixKey.equals(FireflyLuciferin.config.getDefaultLedMatrix()));
+                    ledMatrixKey.equals(FireflyLuciferin.ledMatrixInUse));
             checkboxMenuItem.addItemListener(itemListener -> {
-                logger.info(Constants.STOPPING_THREADS);
-                stopCapturingThreads();
-                for (int i=0; i < popup.getItemCount(); i++) {
-                    if (popup.getItem(i) instanceof CheckboxMenuItem) {
-                        if (!popup.getItem(i).getLabel().equals(checkboxMenuItem.getLabel())) {
-                            ((CheckboxMenuItem) popup.getItem(i)).setState(false);
-                        } else {
-                            ((CheckboxMenuItem) popup.getItem(i)).setState(true);
-                            FireflyLuciferin.config.setDefaultLedMatrix(checkboxMenuItem.getLabel());
-                            logger.info(Constants.CAPTURE_MODE_CHANGED + checkboxMenuItem.getLabel());
-                            startCapturingThreads();
-                        }
-                    }
-                }
+                // Producers swap their precompiled plans on the next frame, capture is never restarted
+                FireflyLuciferin.switchLedMatrix(checkboxMenuItem.getLabel());
+                selectGrabMode(FireflyLuciferin.ledMatrixInUse);
             });
             popup.add(checkboxMenuItem);
 
@@ -240,6 +228,20 @@ public class GUIManager extends JFrame {
 
     }
 
+    /**
+     * Reflect in the tray icon menu a matrix switched without restarting the capture
+     * @param ledMatrixKey matrix in use
+     */
+    public void selectGrabMode(String ledMatrixKey) {
+
+        for (int i=0; i < popup.getItemCount(); i++) {
+            if (popup.getItem(i) instanceof CheckboxMenuItem) {
+                ((CheckboxMenuItem) popup.getItem(i)).setState(popup.getItem(i).getLabel().equals(ledMatrixKey));
+            }
+        }
+
+    }
+
     /**
      * Show alert in a JavaFX dialog
      * @param title dialog title
@@ -325,53 +327,37 @@ public class GUIManager extends JFrame {
     }
 
     /**
-     * Stop capturing threads
+     * Stop capturing threads, the caller is never blocked
+     * @return future completed when capture is stopped
      */
-    @SneakyThrows
-    public void stopCapturingThreads() {
-
-        if (FireflyLuciferin.RUNNING) {
-            if (trayIcon != null) {
-                trayIcon.setImage(imageStop);
-                popup.remove(0);
-                popup.insert(startItem, 0);
-            }
-            if (mqttManager != null) {
-                mqttManager.publishToTopic(Constants.STATE_ON_SOLID);
-                TimeUnit.SECONDS.sleep(4);
-            }
-            FireflyLuciferin.RUNNING = false;
-            if ((FireflyLuciferin.config.getCaptureMethod().equals(Configuration.WindowsCaptureMethod.DDUPL.name()))
-                    || (FireflyLuciferin.config.getCaptureMethod().equals(Configuration.LinuxCaptureMethod.XIMAGESRC.name()))) {
-                FireflyLuciferin.pipe.stop();
-            }
-            FireflyLuciferin.FPS_PRODUCER_COUNTER = 0;
-            FireflyLuciferin.FPS_CONSUMER_COUNTER = 0;
-        }
+    public CompletableFuture<Void> stopCapturingThreads() {
+
+        setTrayRunning(false);
+        return FireflyLuciferin.captureStateMachine.stop();
 
     }
 
     /**
-     * Start capturing threads
+     * Start capturing threads, the caller is never blocked
+     * @return future completed when the device has been notified
      */
-    @SneakyThrows
-    public void startCapturingThreads() {
-
-        if (!FireflyLuciferin.RUNNING) {
-            if (trayIcon != null) {
-                trayIcon.setImage(imagePlay);
-                popup.remove(0);
-                popup.insert(stopItem, 0);
-            }
-            FireflyLuciferin.RUNNING = true;
-            if (mqttManager != null) {
-                TimeUnit.SECONDS.sleep(4);
-                if ((FireflyLuciferin.config.isMqttEnable() && FireflyLuciferin.config.isMqttStream())) {
-                    mqttManager.publishToTopic(Constants.STATE_ON_GLOWWORM);
-                } else {
-                    mqttManager.publishToTopic(Constants.STATE_ON_GLOWWORMWIFI);
-                }
-            }
+    public CompletableFuture<Void> startCapturingThreads() {
+
+        setTrayRunning(true);
+        return FireflyLuciferin.captureStateMachine.start();
+
+    }
+
+    /**
+     * Show the running or the stopped tray icon and menu item
+     * @param running true if capture is running
+     */
+    void setTrayRunning(boolean running) {
+
+        if (trayIcon != null && (popup.getItem(0) == startItem) == running) {
+            trayIcon.setImage(running ? imagePlay : imageStop);
+            popup.remove(0);
+            popup.insert(running ? stopItem : startItem, 0);
         }
 
     }
@@ -29,16 +29,23 @@ import javafx.scene.control.Label;
 import javafx.scene.input.InputEvent;
 import javafx.stage.Stage;
 import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.Watchdog;
 import org.dpsoftware.config.Constants;
 import org.dpsoftware.gui.UpgradeManager;
+import org.dpsoftware.output.FrameEncoder;
+import org.dpsoftware.output.SerialWriter;
+
+import java.util.StringJoiner;
 
 public class InfoController {
 
     @FXML private Label producerLabel;
     @FXML private Label consumerLabel;
+    @FXML private Label watchdogLabel;
     @FXML private Label version;
     @FXML private final StringProperty producerValue = new SimpleStringProperty("");
     @FXML private final StringProperty consumerValue = new SimpleStringProperty("");
+    @FXML private final StringProperty watchdogValue = new SimpleStringProperty("");
 
     @FXML
     protected void initialize() {
@@ -47,18 +54,52 @@ public class InfoController {
 
         producerLabel.textProperty().bind(producerValueProperty());
         consumerLabel.textProperty().bind(consumerValueProperty());
+        watchdogLabel.textProperty().bind(watchdogValueProperty());
         UpgradeManager vm = new UpgradeManager();
         version.setText("by Davide Perini (VERSION)".replaceAll("VERSION", Constants.FIREFLY_LUCIFERIN_VERSION));
         new AnimationTimer() {
             @Override
             public void handle(long now) {
                 setProducerValue("Producing @ " + FireflyLuciferin.FPS_PRODUCER + " FPS");
-                setConsumerValue("Consuming @ " + FireflyLuciferin.FPS_CONSUMER + " FPS");
+                SerialWriter serialWriter = FireflyLuciferin.serialWriter;
+                if (serialWriter != null) {
+                    String consumerValue = String.format(Constants.CONSUMER_SERIAL_STATS, FireflyLuciferin.FPS_CONSUMER,
+                            serialWriter.getBytesPerSecond() / 1024, serialWriter.getLinkUsage() * 100);
+                    FrameEncoder frameEncoder = FireflyLuciferin.frameEncoder;
+                    if (frameEncoder != null && frameEncoder.isCompression()) {
+                        consumerValue += String.format(Constants.CONSUMER_COMPRESSION_STATS, frameEncoder.getCompressionRatio(),
+                                frameEncoder.getCompressedShare() * 100, frameEncoder.getAverageEncodeMicros());
+                    }
+                    setConsumerValue(consumerValue);
+                } else {
+                    setConsumerValue("Consuming @ " + FireflyLuciferin.FPS_CONSUMER + " FPS");
+                }
+                if (FireflyLuciferin.watchdog != null) {
+                    setWatchdogValue(getStallStats(FireflyLuciferin.watchdog));
+                }
             }
         }.start();
 
     }
 
+    /**
+     * Stall count and last recovery time of every stage stalled since the capture started
+     * @param watchdog watchdog in use
+     * @return stall statistics
+     */
+    String getStallStats(Watchdog watchdog) {
+
+        StringJoiner stallStats = new StringJoiner(Constants.WATCHDOG_STALL_STATS_SEPARATOR);
+        for (Watchdog.Heartbeat heartbeat : watchdog.getHeartbeats()) {
+            if (heartbeat.getStallCount() > 0) {
+                stallStats.add(String.format(Constants.WATCHDOG_STALL_STATS, heartbeat.getName(), heartbeat.getStallCount(),
+                        heartbeat.getLastRecoveryMillis()));
+            }
+        }
+        return stallStats.length() > 0 ? stallStats.toString() : Constants.WATCHDOG_NO_STALLS;
+
+    }
+
     @FXML
     public void onMouseClickedCloseBtn(InputEvent e) {
 
@@ -91,4 +132,12 @@ public class InfoController {
         this.consumerValue.set(consumerValue);
     }
 
+    public StringProperty watchdogValueProperty() {
+        return watchdogValue;
+    }
+
+    public void setWatchdogValue(String watchdogValue) {
+        this.watchdogValue.set(watchdogValue);
+    }
+
 }
@@ -43,11 +43,14 @@ import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import javafx.util.Duration;
+import org.dpsoftware.ConfigWatcher;
 import org.dpsoftware.FireflyLuciferin;
 import org.dpsoftware.LEDCoordinate;
 import org.dpsoftware.StorageManager;
 import org.dpsoftware.config.Configuration;
 import org.dpsoftware.config.Constants;
+import org.dpsoftware.config.RuntimeConfig;
+import org.dpsoftware.output.SerialPortLocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +58,8 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.io.IOException;
 import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SettingsController {
@@ -106,11 +111,8 @@ public class SettingsController {
 
         scaling.getItems().addAll("100%", "125%", "150%", "175%", "200%", "225%", "250%", "300%", "350%");
         gamma.getItems().addAll("1.0", "1.8", "2.0", "2.2", "2.4", "4", "5", "6", "8", "10");
-        serialPort.getItems().add(Constants.SERIAL_PORT_AUTO);
+        initSerialPorts();
         if (com.sun.jna.Platform.isWindows()) {
-            for (int i=0; i<=256; i++) {
-                serialPort.getItems().add(Constants.SERIAL_PORT_COM + i);
-            }
             captureMethod.getItems().addAll(Configuration.WindowsCaptureMethod.DDUPL, Configuration.WindowsCaptureMethod.WinAPI, Configuration.WindowsCaptureMethod.CPU);
         } else {
             if (FireflyLuciferin.communicationError) {
@@ -124,13 +126,10 @@ public class SettingsController {
             imageView.setFitHeight(80);
             imageView.setPreserveRatio(true);
             playButton.setGraphic(imageView);
-            for (int i=0; i<=256; i++) {
-                serialPort.getItems().add(Constants.SERIAL_PORT_TTY + i);
-            }
-            linuxCaptureMethod.getItems().addAll(Configuration.LinuxCaptureMethod.XIMAGESRC);
+            linuxCaptureMethod.getItems().addAll(Configuration.LinuxCaptureMethod.XIMAGESRC, Configuration.LinuxCaptureMethod.XSHM);
         }
         orientation.getItems().addAll(Constants.CLOCKWISE, Constants.ANTICLOCKWISE);
-        aspectRatio.getItems().addAll(Constants.FULLSCREEN, Constants.LETTERBOX);
+        aspectRatio.getItems().addAll(Constants.FULLSCREEN, Constants.LETTERBOX, Constants.PILLARBOX);
         StorageManager sm = new StorageManager();
         Configuration currentConfig = sm.readConfig();
         showTestImageButton.setVisible(currentConfig != null);
@@ -170,7 +169,27 @@ public class SettingsController {
             }.start();
         }
         // Gamma can be changed on the fly
-        gamma.valueProperty().addListener((ov, t, t1) -> FireflyLuciferin.config.setGamma(Double.parseDouble(t1)));
+        gamma.valueProperty().addListener((ov, t, t1) -> {
+            FireflyLuciferin.config.setGamma(Double.parseDouble(t1));
+            FireflyLuciferin.runtimeConfig.set(RuntimeConfig.compile(FireflyLuciferin.config));
+        });
+
+    }
+
+    /**
+     * List the serial ports found by the last discovery, then the ports found by a new discovery
+     * running in the background, only ports that exist are listed
+     */
+    void initSerialPorts() {
+
+        serialPort.getItems().add(Constants.SERIAL_PORT_AUTO);
+        serialPort.getItems().addAll(SerialPortLocator.getDiscoveredPorts());
+        // Settings are shown before the executors are created on the first startup
+        Executor executor = FireflyLuciferin.executorManager != null
+                ? FireflyLuciferin.executorManager.getHousekeepingExecutor() : ForkJoinPool.commonPool();
+        SerialPortLocator.discover(executor).thenAccept(ports -> Platform.runLater(() -> ports.stream()
+                .filter(port -> !serialPort.getItems().contains(port))
+                .forEach(port -> serialPort.getItems().add(port))));
 
     }
 
@@ -264,7 +283,11 @@ public class SettingsController {
                 Integer.parseInt(screenHeight.getText()), Integer.parseInt(bottomRightLed.getText()), Integer.parseInt(rightLed.getText()),
                 Integer.parseInt(topLed.getText()), Integer.parseInt(leftLed.getText()), Integer.parseInt(bottomLeftLed.getText()));
 
-        Configuration config = new Configuration(ledFullScreenMatrix,ledLetterboxMatrix);
+        LinkedHashMap<Integer, LEDCoordinate> ledPillarboxMatrix = ledCoordinate.initPillarboxLedMatrix(Integer.parseInt(screenWidth.getText()),
+                Integer.parseInt(screenHeight.getText()), Integer.parseInt(bottomRightLed.getText()), Integer.parseInt(rightLed.getText()),
+                Integer.parseInt(topLed.getText()), Integer.parseInt(leftLed.getText()), Integer.parseInt(bottomLeftLed.getText()));
+
+        Configuration config = new Configuration(ledFullScreenMatrix,ledLetterboxMatrix,ledPillarboxMatrix);
         config.setNumberOfCPUThreads(Integer.parseInt(numberOfThreads.getText()));
         if (com.sun.jna.Platform.isWindows()) {
             switch (captureMethod.getValue()) {
@@ -273,8 +296,9 @@ public class SettingsController {
                 case CPU -> config.setCaptureMethod(Configuration.WindowsCaptureMethod.CPU.name());
             }
         } else {
-            if (linuxCaptureMethod.getValue() == Configuration.LinuxCaptureMethod.XIMAGESRC) {
-                config.setCaptureMethod(Configuration.LinuxCaptureMethod.XIMAGESRC.name());
+            switch (linuxCaptureMethod.getValue()) {
+                case XIMAGESRC -> config.setCaptureMethod(Configuration.LinuxCaptureMethod.XIMAGESRC.name());
+                case XSHM -> config.setCaptureMethod(Configuration.LinuxCaptureMethod.XSHM.name());
             }
         }
         config.setSerialPort(serialPort.getValue());
@@ -296,15 +320,21 @@ public class SettingsController {
         config.setBottomLeftLed(Integer.parseInt(bottomLeftLed.getText()));
         config.setBottomRightLed(Integer.parseInt(bottomRightLed.getText()));
         config.setOrientation(orientation.getValue());
+        boolean firstStartup = FireflyLuciferin.config == null;
+        if (!firstStartup) {
+            config.copyAdvancedSettings(FireflyLuciferin.config);
+        }
 
         try {
             StorageManager sm = new StorageManager();
             sm.writeConfig(config);
-            boolean firstStartup = FireflyLuciferin.config == null;
-            FireflyLuciferin.config = config;
-            if (!firstStartup) {
+            if (firstStartup) {
+                FireflyLuciferin.config = config;
+                cancel(e);
+            } else if (ConfigWatcher.requiresRestart(FireflyLuciferin.config, config)) {
                 exit();
             } else {
+                // Applied while running by the configuration watcher
                 cancel(e);
             }
         } catch (IOException ioException) {
@@ -320,9 +350,11 @@ public class SettingsController {
     public void exit() {
 
         if (FireflyLuciferin.guiManager != null) {
-            FireflyLuciferin.guiManager.stopCapturingThreads();
+            // Exit once capture is stopped, the FX thread is not blocked meanwhile
+            FireflyLuciferin.guiManager.stopCapturingThreads().whenComplete((stopped, throwable) -> System.exit(0));
+        } else {
+            System.exit(0);
         }
-        System.exit(0);
 
     }
 
@@ -411,7 +443,7 @@ public class SettingsController {
 
         controlImage = new Image(this.getClass().getResource(Constants.IMAGE_CONTROL_GREY).toString(), true);
         if (!FireflyLuciferin.communicationError) {
-            if (FireflyLuciferin.RUNNING) {
+            if (FireflyLuciferin.captureStateMachine.isStarted()) {
                 controlImage = new Image(this.getClass().getResource(Constants.IMAGE_CONTROL_LOGO).toString(), true);
             } else {
                 controlImage = new Image(this.getClass().getResource(Constants.IMAGE_CONTROL_PLAY).toString(), true);
@@ -420,7 +452,7 @@ public class SettingsController {
             imageView.setFitHeight(80);
             imageView.setPreserveRatio(true);
             playButton.setGraphic(imageView);
-            if (FireflyLuciferin.RUNNING) {
+            if (FireflyLuciferin.captureStateMachine.isStarted()) {
                 FireflyLuciferin.guiManager.stopCapturingThreads();
             } else {
                 FireflyLuciferin.guiManager.startCapturingThreads();
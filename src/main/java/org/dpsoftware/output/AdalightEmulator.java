@@ -0,0 +1,359 @@
+/*
+  AdalightEmulator.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import lombok.Getter;
+import org.dpsoftware.ExecutorManager;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Linux only Adalight device emulator, benchmark and check the output path without a microcontroller.
+ * It opens a pseudo terminal pair and prints the path of the terminal to use as serialPort,
+ * frames are parsed and their checksum validated, received and corrupted frames are reported every second.
+ * Frames in the compact RGB565 and RGB444 encodings are accepted as well, the encoding in use is reported.
+ * Compressed frames are decoded, a compressed frame not expanding to the LED count of its header is corrupted.
+ * The device consume rate is simulated by reading at most the given frames per second and bytes per second,
+ * a slower device fills the terminal buffer and blocks the writer as a real serial port does.
+ * Usage: AdalightEmulator [framerate] [dataRate], 0 for an unlimited device.
+ * {@link SerialBenchmark} runs an emulator in process to measure the framerate of every encoding.
+ */
+public class AdalightEmulator {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdalightEmulator.class);
+
+    enum ParserState {
+        MAGIC,
+        HEADER,
+        COMPRESSED_HEADER,
+        PAYLOAD
+    }
+
+    private static final byte[] MAGIC = {'A', 'd'};
+
+    private final int framerate;
+    private final int dataRate;
+    private ParserState parserState = ParserState.MAGIC;
+    // Bytes of the magic word or of the header read so far
+    private int position;
+    private final int[] header = new int[3];
+    private int payloadLeft;
+    // Compressed frame being received, its data is decoded once complete
+    private boolean compressed;
+    private byte[] compressedData;
+    // A frame has been lost while searching for the next magic word
+    private boolean resyncing;
+    @Getter private volatile long framesReceived;
+    @Getter private volatile long framesCorrupted;
+    private volatile long bytesReceived;
+    private volatile int ledNumber;
+    private volatile Configuration.SerialEncoding encoding = Configuration.SerialEncoding.RGB888;
+    // Totals at the last report, confined to the reporter thread
+    private long reportedFrames;
+    private long reportedBytes;
+    // Earliest time the simulated device accepts the next frame
+    private long nextFrameNanos;
+    private long readStartNanos;
+    // Pseudo terminal pair, the slave side is kept open so reads don't fail while no writer is connected
+    private int master = -1;
+    private int slave = -1;
+
+    /**
+     * Constructor
+     * @param framerate frames per second consumed by the device, 0 for unlimited
+     * @param dataRate bits per second read by the device, 0 for unlimited
+     */
+    public AdalightEmulator(int framerate, int dataRate) {
+
+        this.framerate = framerate;
+        this.dataRate = dataRate;
+
+    }
+
+    /**
+     * Open a pseudo terminal pair and emulate the device until the process is killed
+     * @param args framerate and data rate of the simulated device
+     */
+    public static void main(String[] args) {
+
+        int framerate = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int dataRate = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        AdalightEmulator emulator = new AdalightEmulator(framerate, dataRate);
+        emulator.open();
+        emulator.run();
+
+    }
+
+    /**
+     * Open the pseudo terminal pair
+     * @return path of the terminal to write to
+     */
+    String open() {
+
+        master = LibC.INSTANCE.posix_openpt(Constants.PTY_O_RDWR | Constants.PTY_O_NOCTTY);
+        if (master < 0 || LibC.INSTANCE.grantpt(master) != 0 || LibC.INSTANCE.unlockpt(master) != 0) {
+            throw new IllegalStateException(Constants.PTY_OPEN_FAILED);
+        }
+        String slavePath = LibC.INSTANCE.ptsname(master);
+        // Raw mode, bytes are not translated, kept open so reads don't fail while Luciferin is restarting
+        slave = LibC.INSTANCE.open(slavePath, Constants.PTY_O_RDWR | Constants.PTY_O_NOCTTY);
+        byte[] termios = new byte[Constants.PTY_TERMIOS_SIZE];
+        LibC.INSTANCE.tcgetattr(slave, termios);
+        LibC.INSTANCE.cfmakeraw(termios);
+        LibC.INSTANCE.tcsetattr(slave, Constants.PTY_TCSANOW, termios);
+        logger.info(Constants.EMULATOR_READY, slavePath, framerate, dataRate);
+        return slavePath;
+
+    }
+
+    /**
+     * Read from the pseudo terminal until the thread is interrupted or the terminal is closed
+     */
+    void run() {
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                ExecutorManager.namedThreadFactory(Constants.THREAD_EMULATOR));
+        reporter.scheduleAtFixedRate(this::report, 1, 1, TimeUnit.SECONDS);
+        byte[] buffer = new byte[Constants.EMULATOR_BUFFER_SIZE];
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                readStartNanos = System.nanoTime();
+                int read = LibC.INSTANCE.read(master, buffer, new NativeLong(buffer.length)).intValue();
+                if (read < 0) {
+                    break;
+                }
+                feed(buffer, read);
+                throttle(read);
+            }
+        } finally {
+            reporter.shutdownNow();
+            LibC.INSTANCE.close(slave);
+            LibC.INSTANCE.close(master);
+        }
+
+    }
+
+    /**
+     * Parse received bytes, frames may span several reads
+     * @param buffer received bytes
+     * @param length number of bytes in the buffer
+     */
+    void feed(byte[] buffer, int length) {
+
+        bytesReceived += length;
+        for (int i = 0; i < length; i++) {
+            int value = buffer[i] & 0xff;
+            switch (parserState) {
+                case MAGIC:
+                    if (position == MAGIC.length && (getEncoding(value) != null || value == Constants.ADALIGHT_MAGIC_COMPRESSED)) {
+                        // Third byte of the magic word, it tells the encoding
+                        compressed = value == Constants.ADALIGHT_MAGIC_COMPRESSED;
+                        if (!compressed) {
+                            encoding = getEncoding(value);
+                        }
+                        parserState = ParserState.HEADER;
+                        position = 0;
+                    } else if (position < MAGIC.length && value == MAGIC[position]) {
+                        position++;
+                    } else {
+                        lostSync();
+                        position = value == MAGIC[0] ? 1 : 0;
+                    }
+                    break;
+                case HEADER:
+                    header[position++] = value;
+                    if (position == header.length) {
+                        position = 0;
+                        if ((header[0] ^ header[1] ^ 0x55) != header[2]) {
+                            lostSync();
+                            parserState = ParserState.MAGIC;
+                        } else if (compressed) {
+                            ledNumber = ((header[0] << 8) | header[1]) + 1;
+                            parserState = ParserState.COMPRESSED_HEADER;
+                        } else {
+                            ledNumber = ((header[0] << 8) | header[1]) + 1;
+                            payloadLeft = FrameEncoder.getFrameSize(encoding, ledNumber) - Constants.ADALIGHT_HEADER_SIZE;
+                            parserState = ParserState.PAYLOAD;
+                        }
+                    }
+                    break;
+                case COMPRESSED_HEADER:
+                    // Encoding of the LEDs and size of the compressed data
+                    header[position++] = value;
+                    if (position == header.length) {
+                        position = 0;
+                        encoding = getEncoding(header[0]);
+                        payloadLeft = (header[1] << 8) | header[2];
+                        if (encoding == null || payloadLeft == 0) {
+                            encoding = Configuration.SerialEncoding.RGB888;
+                            lostSync();
+                            parserState = ParserState.MAGIC;
+                        } else {
+                            compressedData = new byte[payloadLeft];
+                            parserState = ParserState.PAYLOAD;
+                        }
+                    }
+                    break;
+                case PAYLOAD:
+                    // Skip the colors in bulk, only their count matters, compressed data is kept to be decoded
+                    int skipped = Math.min(payloadLeft, length - i);
+                    if (compressed) {
+                        System.arraycopy(buffer, i, compressedData, compressedData.length - payloadLeft, skipped);
+                    }
+                    payloadLeft -= skipped;
+                    i += skipped - 1;
+                    if (payloadLeft == 0) {
+                        if (!compressed || decodedLeds(compressedData, FrameEncoder.getPixelSize(encoding)) == ledNumber) {
+                            frameReceived();
+                        } else {
+                            lostSync();
+                        }
+                        parserState = ParserState.MAGIC;
+                    }
+                    break;
+            }
+        }
+
+    }
+
+    /**
+     * Number of LEDs in compressed data
+     * @param data compressed data
+     * @param pixelSize bytes of a LED
+     * @return number of LEDs, -1 if the data is truncated
+     */
+    static int decodedLeds(byte[] data, int pixelSize) {
+
+        int leds = 0;
+        int i = 0;
+        while (i < data.length) {
+            int control = data[i++] & 0xff;
+            if (control < Constants.RLE_MAX_LITERAL) {
+                leds += control + 1;
+                i += (control + 1) * pixelSize;
+            } else {
+                leds += control - Constants.RLE_REPEAT_OFFSET;
+                i += pixelSize;
+            }
+        }
+        return i == data.length ? leds : -1;
+
+    }
+
+    /**
+     * Encoding of a magic word
+     * @param magic third byte of the magic word
+     * @return encoding, null if the byte doesn't belong to a magic word
+     */
+    static Configuration.SerialEncoding getEncoding(int magic) {
+
+        for (Configuration.SerialEncoding candidate : Configuration.SerialEncoding.values()) {
+            if (candidate != Configuration.SerialEncoding.AUTO && FrameEncoder.getMagic(candidate) == magic) {
+                return candidate;
+            }
+        }
+        return null;
+
+    }
+
+    /**
+     * Count a frame lost to a bad checksum or to bytes outside of a frame, once until the next valid frame
+     */
+    void lostSync() {
+
+        if (!resyncing) {
+            resyncing = true;
+            framesCorrupted++;
+        }
+
+    }
+
+    /**
+     * Count a complete frame and wait for the simulated device to be ready for the next one
+     */
+    void frameReceived() {
+
+        resyncing = false;
+        framesReceived++;
+        if (framerate > 0) {
+            long now = System.nanoTime();
+            nextFrameNanos = Math.max(nextFrameNanos, now) + TimeUnit.SECONDS.toNanos(1) / framerate;
+            LockSupport.parkNanos(nextFrameNanos - now);
+        }
+
+    }
+
+    /**
+     * Read no faster than the simulated data rate, 8N1 serial sends 10 bits for every byte
+     * @param read bytes read
+     */
+    void throttle(int read) {
+
+        if (dataRate > 0) {
+            long readNanos = TimeUnit.SECONDS.toNanos(1) * read * 10 / dataRate;
+            LockSupport.parkNanos(readStartNanos + readNanos - System.nanoTime());
+        }
+
+    }
+
+    /**
+     * Report frames and bytes received since the last report
+     */
+    void report() {
+
+        long frames = framesReceived;
+        long bytes = bytesReceived;
+        logger.info(Constants.EMULATOR_STATS, frames - reportedFrames, ledNumber, encoding, (bytes - reportedBytes) / 1024,
+                framesCorrupted);
+        reportedFrames = frames;
+        reportedBytes = bytes;
+
+    }
+
+    /**
+     * Pseudo terminal functions, libc
+     */
+    public interface LibC extends Library {
+
+        LibC INSTANCE = Native.load("c", LibC.class);
+
+        int posix_openpt(int flags);
+        int grantpt(int fd);
+        int unlockpt(int fd);
+        String ptsname(int fd);
+        int open(String path, int flags);
+        NativeLong read(int fd, byte[] buffer, NativeLong count);
+        int close(int fd);
+        int tcgetattr(int fd, byte[] termios);
+        void cfmakeraw(byte[] termios);
+        int tcsetattr(int fd, int optionalActions, byte[] termios);
+
+    }
+
+}
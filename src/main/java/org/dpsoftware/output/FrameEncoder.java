@@ -0,0 +1,378 @@
+/*
+  FrameEncoder.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.Getter;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode frames for the serial port, Adalight header followed by the LEDs in wiring order.
+ * RGB888 is the plain Adalight frame, RGB565 sends two bytes per LED and RGB444 packs two LEDs in three bytes,
+ * the third byte of the magic word tells the microcontroller which encoding follows.
+ * Compact encodings can spread their quantization error over the next frames, the error of every channel
+ * is carried to the next frame so a static color averages to its full depth value.
+ * With compression enabled runs of identical LEDs are run length encoded, every frame is sent compressed
+ * only when it's smaller than the raw frame. A compressed frame is self describing: after the Adalight header
+ * come the magic byte of the encoding of its LEDs and the size of the compressed data, then PackBits style runs,
+ * a control byte below 128 is followed by control + 1 different LEDs, a control byte from 128 is followed by
+ * one LED repeated control - 126 times. Compressed LEDs take 3 bytes in RGB888 and 2 bytes otherwise.
+ * The dithering error is kept between frames, an encoder is used by the consumer thread only.
+ */
+public class FrameEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameEncoder.class);
+
+    @Getter private final Configuration.SerialEncoding encoding;
+    private final OutputPermutation outputPermutation;
+    @Getter private final boolean dithering;
+    @Getter private final boolean compression;
+    // Full depth LEDs in wiring order and channel order, quantized into the frame by the compact encodings
+    private final byte[] channels;
+    // Quantization error carried to the next frame for every channel
+    private final int[] residuals;
+    // LEDs packed in the encoding in use, compared to find runs
+    private final int[] pixels;
+    // Compressed frame, sent only when smaller than the raw frame
+    private final byte[] compressedFrame;
+    // Compression ratio and encode time measured over the last window
+    @Getter private volatile float compressionRatio = 1;
+    @Getter private volatile float compressedShare;
+    @Getter private volatile float averageEncodeMicros;
+    // Measurement window, confined to the consumer thread
+    private long windowStart = System.nanoTime();
+    private long windowRawBytes;
+    private long windowSentBytes;
+    private long windowFrames;
+    private long windowCompressedFrames;
+    private long windowEncodeNanos;
+
+    /**
+     * Constructor
+     * @param encoding serial encoding, AUTO is not allowed
+     * @param outputPermutation physical wiring of the LED strip
+     * @param dithering carry the quantization error to the next frame
+     * @param compression run length encode the frames when it makes them smaller
+     */
+    public FrameEncoder(Configuration.SerialEncoding encoding, OutputPermutation outputPermutation, boolean dithering,
+                        boolean compression) {
+
+        this.encoding = encoding;
+        this.outputPermutation = outputPermutation;
+        this.dithering = dithering;
+        this.compression = compression;
+        this.channels = new byte[outputPermutation.getLedNumber() * 3];
+        this.residuals = new int[channels.length];
+        this.pixels = new int[outputPermutation.getLedNumber()];
+        // Worst case, a control byte every 128 different LEDs
+        this.compressedFrame = compression ? new byte[Constants.ADALIGHT_COMPRESSED_HEADER_SIZE
+                + pixels.length * getPixelSize(encoding) + (pixels.length + 127) / 128] : null;
+
+    }
+
+    /**
+     * Bytes of a frame, header included
+     * @param encoding serial encoding
+     * @param ledNumber number of physical LEDs
+     * @return frame size
+     */
+    public static int getFrameSize(Configuration.SerialEncoding encoding, int ledNumber) {
+
+        switch (encoding) {
+            case RGB565:
+                return Constants.ADALIGHT_HEADER_SIZE + ledNumber * 2;
+            case RGB444:
+                return Constants.ADALIGHT_HEADER_SIZE + (ledNumber * 3 + 1) / 2;
+            default:
+                return Constants.ADALIGHT_HEADER_SIZE + ledNumber * 3;
+        }
+
+    }
+
+    /**
+     * Bytes of a LED in a compressed frame
+     * @param encoding serial encoding
+     * @return 3 for RGB888, 2 otherwise
+     */
+    public static int getPixelSize(Configuration.SerialEncoding encoding) {
+
+        return encoding == Configuration.SerialEncoding.RGB888 ? 3 : 2;
+
+    }
+
+    /**
+     * Serial encoding to use, AUTO picks the deepest encoding sustaining the target framerate at the configured
+     * data rate, the most compact one if none does. 8N1 serial sends 10 bits for every byte.
+     * @param config configuration in use
+     * @param ledNumber number of physical LEDs
+     * @return serial encoding
+     */
+    public static Configuration.SerialEncoding selectEncoding(Configuration config, int ledNumber) {
+
+        Configuration.SerialEncoding encoding = Configuration.SerialEncoding.RGB888;
+        try {
+            encoding = Configuration.SerialEncoding.valueOf(config.getSerialEncoding());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            logger.error(Constants.INVALID_SERIAL_ENCODING + config.getSerialEncoding());
+        }
+        if (encoding != Configuration.SerialEncoding.AUTO) {
+            return encoding;
+        }
+        Configuration.SerialEncoding[] candidates = {Configuration.SerialEncoding.RGB888,
+                Configuration.SerialEncoding.RGB565, Configuration.SerialEncoding.RGB444};
+        for (Configuration.SerialEncoding candidate : candidates) {
+            encoding = candidate;
+            float maxFramerate = config.getDataRate() / (10F * getFrameSize(candidate, ledNumber));
+            if (maxFramerate >= config.getTargetFramerate()) {
+                break;
+            }
+        }
+        logger.info(Constants.SERIAL_ENCODING_SELECTED, encoding, config.getTargetFramerate(), config.getDataRate());
+        return encoding;
+
+    }
+
+    /**
+     * Encode a frame
+     * @param leds frame produced by the grabbers
+     * @return frame ready to be written, a new array for every frame
+     */
+    public byte[] encode(Color[] leds) {
+
+        long encodeStart = System.nanoTime();
+        outputPermutation.encode(leds, channels, 0);
+        for (int led = 0, i = 0; led < pixels.length; led++, i += 3) {
+            pixels[led] = pack(i);
+        }
+        int ledNumber = pixels.length;
+        byte[] frame;
+        int rawSize = getFrameSize(encoding, ledNumber);
+        int compressedSize = compression ? compress() : Integer.MAX_VALUE;
+        if (compressedSize < rawSize) {
+            frame = new byte[compressedSize];
+            System.arraycopy(compressedFrame, 0, frame, 0, compressedSize);
+            writeHeader(frame, Constants.ADALIGHT_MAGIC_COMPRESSED, ledNumber);
+        } else {
+            frame = new byte[rawSize];
+            writeHeader(frame, getMagic(encoding), ledNumber);
+            writeRaw(frame);
+        }
+        if (compression) {
+            measure(rawSize, frame.length, System.nanoTime() - encodeStart);
+        }
+        return frame;
+
+    }
+
+    /**
+     * Write the Adalight header
+     * @param frame frame
+     * @param magic third byte of the magic word
+     * @param ledNumber number of physical LEDs
+     */
+    static void writeHeader(byte[] frame, byte magic, int ledNumber) {
+
+        // Adalight checksum
+        int ledsCountHi = ((ledNumber - 1) >> 8) & 0xff;
+        int ledsCountLo = (ledNumber - 1) & 0xff;
+        frame[0] = (byte) ('A');
+        frame[1] = (byte) ('d');
+        frame[2] = magic;
+        frame[3] = (byte) (ledsCountHi);
+        frame[4] = (byte) (ledsCountLo);
+        frame[5] = (byte) ((ledsCountHi ^ ledsCountLo ^ 0x55));
+
+    }
+
+    /**
+     * Write the packed LEDs after the header
+     * @param frame frame
+     */
+    void writeRaw(byte[] frame) {
+
+        int j = Constants.ADALIGHT_HEADER_SIZE;
+        switch (encoding) {
+            case RGB565:
+                for (int pixel : pixels) {
+                    frame[j++] = (byte) (pixel >> 8);
+                    frame[j++] = (byte) pixel;
+                }
+                break;
+            case RGB444:
+                // Three nibbles for every LED, two nibbles for every byte, high nibble first
+                for (int nibble = 0; nibble < pixels.length * 3; nibble++) {
+                    int value = (pixels[nibble / 3] >> (8 - (nibble % 3) * 4)) & 0xf;
+                    j = Constants.ADALIGHT_HEADER_SIZE + nibble / 2;
+                    frame[j] = (byte) ((nibble & 1) == 0 ? value << 4 : frame[j] | value);
+                }
+                break;
+            default:
+                for (int pixel : pixels) {
+                    frame[j++] = (byte) (pixel >> 16);
+                    frame[j++] = (byte) (pixel >> 8);
+                    frame[j++] = (byte) pixel;
+                }
+                break;
+        }
+
+    }
+
+    /**
+     * Run length encode the packed LEDs into the compressed frame, the Adalight header is written afterwards
+     * @return size of the compressed frame
+     */
+    int compress() {
+
+        compressedFrame[Constants.ADALIGHT_HEADER_SIZE] = getMagic(encoding);
+        int out = Constants.ADALIGHT_COMPRESSED_HEADER_SIZE;
+        int i = 0;
+        while (i < pixels.length) {
+            int run = 1;
+            while (i + run < pixels.length && run < Constants.RLE_MAX_REPEAT && pixels[i + run] == pixels[i]) {
+                run++;
+            }
+            if (run > 1) {
+                compressedFrame[out++] = (byte) (run + Constants.RLE_REPEAT_OFFSET);
+                out = writePixel(pixels[i], out);
+                i += run;
+            } else {
+                // Different LEDs up to the start of the next run
+                int control = out++;
+                int count = 0;
+                while (i < pixels.length && count < Constants.RLE_MAX_LITERAL
+                        && !(i + 1 < pixels.length && pixels[i + 1] == pixels[i])) {
+                    out = writePixel(pixels[i++], out);
+                    count++;
+                }
+                compressedFrame[control] = (byte) (count - 1);
+            }
+        }
+        int dataSize = out - Constants.ADALIGHT_COMPRESSED_HEADER_SIZE;
+        compressedFrame[Constants.ADALIGHT_HEADER_SIZE + 1] = (byte) (dataSize >> 8);
+        compressedFrame[Constants.ADALIGHT_HEADER_SIZE + 2] = (byte) dataSize;
+        return out;
+
+    }
+
+    /**
+     * Write a LED into the compressed frame
+     * @param pixel packed LED
+     * @param out position in the compressed frame
+     * @return position after the LED
+     */
+    int writePixel(int pixel, int out) {
+
+        if (encoding == Configuration.SerialEncoding.RGB888) {
+            compressedFrame[out++] = (byte) (pixel >> 16);
+        }
+        compressedFrame[out++] = (byte) (pixel >> 8);
+        compressedFrame[out++] = (byte) pixel;
+        return out;
+
+    }
+
+    /**
+     * Pack the three channels of a LED in the encoding in use
+     * @param channel index of the first channel of the LED
+     * @return packed LED
+     */
+    int pack(int channel) {
+
+        switch (encoding) {
+            case RGB565:
+                return (quantize(channel, 5) << 11) | (quantize(channel + 1, 6) << 5) | quantize(channel + 2, 5);
+            case RGB444:
+                return (quantize(channel, 4) << 8) | (quantize(channel + 1, 4) << 4) | quantize(channel + 2, 4);
+            default:
+                return ((channels[channel] & 0xff) << 16) | ((channels[channel + 1] & 0xff) << 8) | (channels[channel + 2] & 0xff);
+        }
+
+    }
+
+    /**
+     * Reduce a channel to fewer bits, the error is carried to the next frame when dithering
+     * @param channel channel index
+     * @param bits bits to keep
+     * @return quantized channel
+     */
+    int quantize(int channel, int bits) {
+
+        int value = channels[channel] & 0xff;
+        if (!dithering) {
+            return value >> (8 - bits);
+        }
+        value = Math.min(255, Math.max(0, value + residuals[channel]));
+        int quantized = value >> (8 - bits);
+        // The microcontroller expands the channel back to 8 bits by replicating the high bits
+        int expanded = (quantized << (8 - bits)) | (quantized >> (2 * bits - 8));
+        residuals[channel] = value - expanded;
+        return quantized;
+
+    }
+
+    /**
+     * Account an encoded frame
+     * @param rawSize size of the raw frame
+     * @param sentSize size of the frame sent
+     * @param encodeNanos encode duration
+     */
+    void measure(int rawSize, int sentSize, long encodeNanos) {
+
+        windowRawBytes += rawSize;
+        windowSentBytes += sentSize;
+        windowFrames++;
+        windowEncodeNanos += encodeNanos;
+        if (sentSize < rawSize) {
+            windowCompressedFrames++;
+        }
+        long elapsed = System.nanoTime() - windowStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(Constants.SERIAL_STATS_WINDOW)) {
+            compressionRatio = (float) windowRawBytes / windowSentBytes;
+            compressedShare = (float) windowCompressedFrames / windowFrames;
+            averageEncodeMicros = windowEncodeNanos / 1e3F / windowFrames;
+            windowStart += elapsed;
+            windowRawBytes = windowSentBytes = windowFrames = windowCompressedFrames = windowEncodeNanos = 0;
+        }
+
+    }
+
+    /**
+     * Third byte of the magic word
+     * @param encoding serial encoding
+     * @return 'a' for the plain Adalight frame
+     */
+    static byte getMagic(Configuration.SerialEncoding encoding) {
+
+        switch (encoding) {
+            case RGB565:
+                return Constants.ADALIGHT_MAGIC_RGB565;
+            case RGB444:
+                return Constants.ADALIGHT_MAGIC_RGB444;
+            default:
+                return Constants.ADALIGHT_MAGIC_RGB888;
+        }
+
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+  NrSerialTransport.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.PortInUseException;
+import gnu.io.SerialPort;
+import gnu.io.UnsupportedCommOperationException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serial port opened through nrjavaserial, 8N1 at the configured data rate
+ */
+public class NrSerialTransport implements SerialTransport {
+
+    private final CommPortIdentifier portIdentifier;
+    private final String owner;
+    private final int timeout;
+    private final int dataRate;
+    private SerialPort serial;
+
+    /**
+     * Constructor
+     * @param portIdentifier port to open
+     * @param owner application owning the port
+     * @param timeout milliseconds to wait for the port
+     * @param dataRate data rate in bits per second
+     */
+    public NrSerialTransport(CommPortIdentifier portIdentifier, String owner, int timeout, int dataRate) {
+
+        this.portIdentifier = portIdentifier;
+        this.owner = owner;
+        this.timeout = timeout;
+        this.dataRate = dataRate;
+
+    }
+
+    @Override
+    public void open() throws IOException {
+
+        try {
+            serial = portIdentifier.open(owner, timeout);
+            serial.setSerialPortParams(dataRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+        } catch (PortInUseException | UnsupportedCommOperationException e) {
+            close();
+            throw new IOException(e.getMessage(), e);
+        }
+
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+
+        if (serial == null) {
+            throw new IOException(getName());
+        }
+        return serial.getOutputStream();
+
+    }
+
+    @Override
+    public String getName() {
+
+        return portIdentifier.getName();
+
+    }
+
+    @Override
+    public void close() {
+
+        if (serial != null) {
+            serial.close();
+            serial = null;
+        }
+
+    }
+
+}
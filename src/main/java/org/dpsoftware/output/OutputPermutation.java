@@ -0,0 +1,177 @@
+/*
+  OutputPermutation.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Physical wiring of the LED strip compiled into an index map and a channel order.
+ * Every physical LED shows a LED of the matrix or stays black, the map covers orientation, start offset,
+ * skipped LEDs and segments wired in the opposite direction. The map is applied while encoding,
+ * frames produced by the grabbers are never reordered in place.
+ */
+public class OutputPermutation {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputPermutation.class);
+
+    // Matrix LED shown by every physical LED, -1 for LEDs kept black
+    private final int[] ledIndexes;
+    // Position of the red, green and blue channels in the three bytes of a LED
+    private final int redOffset;
+    private final int greenOffset;
+    private final int blueOffset;
+
+    /**
+     * Constructor
+     * @param ledIndexes matrix LED shown by every physical LED, -1 for LEDs kept black
+     * @param colorOrder channel order, example: GRB
+     */
+    OutputPermutation(int[] ledIndexes, Configuration.ColorOrder colorOrder) {
+
+        this.ledIndexes = ledIndexes;
+        this.redOffset = colorOrder.name().indexOf('R');
+        this.greenOffset = colorOrder.name().indexOf('G');
+        this.blueOffset = colorOrder.name().indexOf('B');
+
+    }
+
+    /**
+     * Compile the wiring settings
+     * @param config configuration in use
+     * @param ledNumber number of LEDs in the matrix
+     * @return output permutation
+     */
+    public static OutputPermutation compile(Configuration config, int ledNumber) {
+
+        int[] matrixOrder = new int[ledNumber];
+        boolean clockwise = Constants.CLOCKWISE.equals(config.getOrientation());
+        int ledOffset = ledNumber > 0 ? Math.floorMod(config.getLedOffset(), ledNumber) : 0;
+        for (int i = 0; i < ledNumber; i++) {
+            int ledIndex = (i + ledOffset) % ledNumber;
+            matrixOrder[i] = clockwise ? ledNumber - 1 - ledIndex : ledIndex;
+        }
+        // Skipped LEDs are inserted at their physical position, the matrix LEDs shift after them
+        TreeSet<Integer> skippedLeds = new TreeSet<>();
+        for (Integer skippedLed : config.getSkippedLeds()) {
+            if (skippedLed != null && skippedLed >= 0) {
+                skippedLeds.add(skippedLed);
+            }
+        }
+        int physicalNumber = Math.max(ledNumber + skippedLeds.size(), skippedLeds.isEmpty() ? 0 : skippedLeds.last() + 1);
+        int[] ledIndexes = new int[physicalNumber];
+        int next = 0;
+        for (int i = 0; i < physicalNumber; i++) {
+            ledIndexes[i] = skippedLeds.contains(i) || next >= ledNumber ? -1 : matrixOrder[next++];
+        }
+        for (int[] segment : getReversedSegments(config, physicalNumber)) {
+            for (int from = segment[0], to = segment[1]; from < to; from++, to--) {
+                int ledIndex = ledIndexes[from];
+                ledIndexes[from] = ledIndexes[to];
+                ledIndexes[to] = ledIndex;
+            }
+        }
+        Configuration.ColorOrder colorOrder = Configuration.ColorOrder.RGB;
+        try {
+            colorOrder = Configuration.ColorOrder.valueOf(config.getColorOrder());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            logger.error(Constants.INVALID_COLOR_ORDER + config.getColorOrder());
+        }
+        return new OutputPermutation(ledIndexes, colorOrder);
+
+    }
+
+    /**
+     * Parse the ranges of physical LEDs wired in the opposite direction
+     * @param config configuration in use
+     * @param physicalNumber number of physical LEDs
+     * @return first and last physical LED of every segment, clamped to the strip
+     */
+    static List<int[]> getReversedSegments(Configuration config, int physicalNumber) {
+
+        List<int[]> segments = new ArrayList<>();
+        for (String segment : config.getReversedSegments()) {
+            try {
+                String[] bounds = segment.split(Constants.SEGMENT_SEPARATOR);
+                int from = Math.max(0, Integer.parseInt(bounds[0].trim()));
+                int to = Math.min(physicalNumber - 1, Integer.parseInt(bounds[1].trim()));
+                segments.add(new int[] {from, to});
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException | NullPointerException e) {
+                logger.error(Constants.INVALID_SEGMENT + segment);
+            }
+        }
+        return segments;
+
+    }
+
+    /**
+     * Number of physical LEDs
+     * @return number of LEDs driven by the output, skipped LEDs included
+     */
+    public int getLedNumber() {
+
+        return ledIndexes.length;
+
+    }
+
+    /**
+     * Color shown by a physical LED
+     * @param leds frame produced by the grabbers
+     * @param physicalLed physical LED index
+     * @return color, black for skipped LEDs
+     */
+    public Color getColor(Color[] leds, int physicalLed) {
+
+        int ledIndex = ledIndexes[physicalLed];
+        return ledIndex < 0 ? Color.BLACK : leds[ledIndex];
+
+    }
+
+    /**
+     * Write the physical LEDs in wiring order and channel order, three bytes per LED
+     * @param leds frame produced by the grabbers
+     * @param buffer output buffer
+     * @param offset position of the first LED in the buffer
+     * @return position after the last LED
+     */
+    public int encode(Color[] leds, byte[] buffer, int offset) {
+
+        for (int ledIndex : ledIndexes) {
+            if (ledIndex >= 0) {
+                Color color = leds[ledIndex];
+                buffer[offset + redOffset] = (byte) color.getRed();
+                buffer[offset + greenOffset] = (byte) color.getGreen();
+                buffer[offset + blueOffset] = (byte) color.getBlue();
+            } else {
+                buffer[offset] = buffer[offset + 1] = buffer[offset + 2] = 0;
+            }
+            offset += 3;
+        }
+        return offset;
+
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+  PtyTransport.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Linux pseudo terminal written as a plain file, used to talk to the {@link AdalightEmulator}.
+ * The emulator puts the terminal in raw mode, there is no data rate to set.
+ */
+public class PtyTransport implements SerialTransport {
+
+    private final String path;
+    private FileOutputStream output;
+
+    /**
+     * Constructor
+     * @param path pseudo terminal path, /dev/pts/N
+     */
+    public PtyTransport(String path) {
+
+        this.path = path;
+
+    }
+
+    @Override
+    public void open() throws IOException {
+
+        output = new FileOutputStream(path);
+
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+
+        if (output == null) {
+            throw new IOException(path);
+        }
+        return output;
+
+    }
+
+    @Override
+    public String getName() {
+
+        return path;
+
+    }
+
+    @Override
+    public void close() {
+
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+                // Already gone with the emulator
+            }
+            output = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+  SerialBenchmark.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import org.dpsoftware.ExecutorManager;
+import org.dpsoftware.config.Configuration;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Linux only benchmark of the serial encodings, it reproduces the framerate gained by the compact encodings and by compression.
+ * An {@link AdalightEmulator} reading at most the given data rate runs in process, frames are written to it in every encoding,
+ * with and without compression, and the frames the emulator receives are counted. Two scenes are sent:
+ * a movie scene with a different color on every LED and a letterbox scene with half of the LEDs black.
+ * Usage: SerialBenchmark [ledNumber] [dataRate] [seconds]
+ */
+public class SerialBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerialBenchmark.class);
+
+    private static final Configuration.SerialEncoding[] ENCODINGS = {Configuration.SerialEncoding.RGB888,
+            Configuration.SerialEncoding.RGB565, Configuration.SerialEncoding.RGB444};
+
+    /**
+     * Run the benchmark and print a line for every scene, encoding and compression setting
+     * @param args number of LEDs, data rate of the emulated link and seconds measured for every setting
+     * @throws IOException if the pseudo terminal can't be written
+     */
+    public static void main(String[] args) throws IOException {
+
+        int ledNumber = args.length > 0 ? Integer.parseInt(args[0]) : Constants.SERIAL_BENCHMARK_LEDS;
+        int dataRate = args.length > 1 ? Integer.parseInt(args[1]) : Constants.SERIAL_BENCHMARK_DATA_RATE;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : Constants.SERIAL_BENCHMARK_SECONDS;
+        AdalightEmulator emulator = new AdalightEmulator(0, dataRate);
+        PtyTransport transport = new PtyTransport(emulator.open());
+        Thread emulatorThread = ExecutorManager.namedThreadFactory(Constants.THREAD_EMULATOR).newThread(emulator::run);
+        emulatorThread.setDaemon(true);
+        emulatorThread.start();
+        logger.info(Constants.SERIAL_BENCHMARK_STARTED, ledNumber, dataRate, seconds);
+        OutputPermutation outputPermutation = new OutputPermutation(IntStream.range(0, ledNumber).toArray(), Configuration.ColorOrder.RGB);
+        transport.open();
+        try {
+            for (Map.Entry<String, Color[]> scene : getScenes(ledNumber).entrySet()) {
+                for (Configuration.SerialEncoding encoding : ENCODINGS) {
+                    for (boolean compression : new boolean[] {false, true}) {
+                        FrameEncoder frameEncoder = new FrameEncoder(encoding, outputPermutation, true, compression);
+                        measure(emulator, frameEncoder, scene.getKey(), scene.getValue(), transport.getOutputStream(), dataRate, seconds);
+                    }
+                }
+            }
+        } finally {
+            transport.close();
+        }
+        // The emulator reporter is still running
+        System.exit(0);
+
+    }
+
+    /**
+     * Frames sent by the benchmark, always the same for every run
+     * @param ledNumber number of LEDs
+     * @return scenes by name
+     */
+    static Map<String, Color[]> getScenes(int ledNumber) {
+
+        Random random = new Random(ledNumber);
+        Color[] movie = new Color[ledNumber];
+        Color[] letterbox = new Color[ledNumber];
+        for (int i = 0; i < ledNumber; i++) {
+            movie[i] = new Color(random.nextInt(0xffffff));
+            // Top and bottom edges black, the side edges show the movie
+            letterbox[i] = (i / (ledNumber / 4 + 1)) % 2 == 0 ? Color.BLACK : movie[i];
+        }
+        Map<String, Color[]> scenes = new LinkedHashMap<>();
+        scenes.put(Constants.SERIAL_BENCHMARK_MOVIE, movie);
+        scenes.put(Constants.SERIAL_BENCHMARK_LETTERBOX, letterbox);
+        return scenes;
+
+    }
+
+    /**
+     * Write frames as fast as the emulator reads them and count the frames it receives
+     * @param emulator emulator reading the frames
+     * @param frameEncoder encoder to benchmark
+     * @param sceneName name of the scene
+     * @param leds scene to send
+     * @param output pseudo terminal
+     * @param dataRate data rate of the emulated link
+     * @param seconds seconds measured
+     * @throws IOException if the pseudo terminal can't be written
+     */
+    static void measure(AdalightEmulator emulator, FrameEncoder frameEncoder, String sceneName, Color[] leds,
+                        OutputStream output, int dataRate, int seconds) throws IOException {
+
+        // Bytes of the previous setting still in the terminal buffer are drained during the warm up
+        write(frameEncoder, leds, output, TimeUnit.MILLISECONDS.toNanos(Constants.SERIAL_BENCHMARK_WARMUP_MILLIS));
+        long startFrames = emulator.getFramesReceived();
+        long startCorrupted = emulator.getFramesCorrupted();
+        long start = System.nanoTime();
+        int frameSize = write(frameEncoder, leds, output, TimeUnit.SECONDS.toNanos(seconds));
+        float fps = (emulator.getFramesReceived() - startFrames) * 1e9F / (System.nanoTime() - start);
+        // 8N1 serial sends 10 bits for every byte
+        float linkLimit = dataRate > 0 ? dataRate / (10F * frameSize) : Float.POSITIVE_INFINITY;
+        logger.info(String.format(Constants.SERIAL_BENCHMARK_RESULT, sceneName, frameEncoder.getEncoding(),
+                frameEncoder.isCompression(), fps, linkLimit, frameSize,
+                emulator.getFramesCorrupted() - startCorrupted));
+
+    }
+
+    /**
+     * Write frames for a while, writes block while the emulator is busy as they do with a real serial port
+     * @param frameEncoder encoder to use
+     * @param leds scene to send
+     * @param output pseudo terminal
+     * @param nanos how long to write
+     * @return size of the last frame written
+     * @throws IOException if the pseudo terminal can't be written
+     */
+    static int write(FrameEncoder frameEncoder, Color[] leds, OutputStream output, long nanos) throws IOException {
+
+        long end = System.nanoTime() + nanos;
+        int frameSize = 0;
+        while (System.nanoTime() < end) {
+            byte[] frame = frameEncoder.encode(leds);
+            output.write(frame);
+            frameSize = frame.length;
+        }
+        return frameSize;
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+  SerialPortLocator.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import com.sun.jna.Platform;
+import gnu.io.CommPortIdentifier;
+import org.dpsoftware.config.Constants;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Find serial ports without blocking the startup or the UI.
+ * Enumerating ports probes every device and is slow on machines with many ports, it runs on a background thread
+ * and the names of the serial ports found are cached for the settings dialog.
+ * The automatic port search tries the last port found first, a port is found again after the device has been unplugged
+ * by name first, USB serial adapters may come back with another name so on Linux the port is also matched
+ * by the USB vendor and product id read from sysfs. Looking for the device nodes on Linux is cheap,
+ * the port is enumerated again only once a matching device is there.
+ */
+public class SerialPortLocator {
+
+    // Names of the serial ports found by the last enumeration
+    private static volatile List<String> discoveredPorts = Collections.emptyList();
+    // Last discovery, null until the first one is requested
+    private static CompletableFuture<List<String>> discovery;
+
+    /**
+     * Enumerate the serial ports on a background thread, calls made while a discovery is running share its result
+     * @param executor executor running the discovery
+     * @return future completed with the names of the serial ports
+     */
+    public static synchronized CompletableFuture<List<String>> discover(Executor executor) {
+
+        if (discovery == null || discovery.isDone()) {
+            discovery = CompletableFuture.supplyAsync(() -> {
+                enumerate();
+                return discoveredPorts;
+            }, executor);
+        }
+        return discovery;
+
+    }
+
+    /**
+     * Names of the serial ports found by the last enumeration
+     * @return port names, empty until ports have been enumerated
+     */
+    public static List<String> getDiscoveredPorts() {
+
+        return discoveredPorts;
+
+    }
+
+    /**
+     * Enumerate the serial ports and cache their names
+     * @return serial ports
+     */
+    static synchronized List<CommPortIdentifier> enumerate() {
+
+        List<CommPortIdentifier> ports = new ArrayList<>();
+        List<String> portNames = new ArrayList<>();
+        Enumeration<?> enumComm = CommPortIdentifier.getPortIdentifiers();
+        while (enumComm.hasMoreElements()) {
+            CommPortIdentifier portAvailable = (CommPortIdentifier) enumComm.nextElement();
+            if (portAvailable.getPortType() == CommPortIdentifier.PORT_SERIAL) {
+                ports.add(portAvailable);
+                portNames.add(portAvailable.getName());
+            }
+        }
+        discoveredPorts = Collections.unmodifiableList(portNames);
+        return ports;
+
+    }
+
+    /**
+     * Find the configured port
+     * @param serialPort configured port name, AUTO for the automatic port search
+     * @param lastSerialPort last port found by the automatic port search, tried first
+     * @return port, null if no port is connected
+     */
+    public static CommPortIdentifier findConfigured(String serialPort, String lastSerialPort) {
+
+        if (!Constants.SERIAL_PORT_AUTO.equals(serialPort)) {
+            return find(serialPort, null);
+        }
+        CommPortIdentifier found = null;
+        for (CommPortIdentifier portAvailable : enumerate()) {
+            if (portAvailable.getName().equals(lastSerialPort)) {
+                return portAvailable;
+            }
+            // Without a known port the last one is used
+            found = portAvailable;
+        }
+        return found;
+
+    }
+
+    /**
+     * USB vendor and product id of a port, Linux only
+     * @param portName port name, /dev/ttyUSB0
+     * @return vid:pid, null if the port is not a USB device or the id can't be read
+     */
+    public static String readUsbId(String portName) {
+
+        if (portName == null) {
+            return null;
+        }
+        Path ttyDevice = Paths.get(Constants.SYSFS_TTY_PATH, Paths.get(portName).getFileName().toString(), Constants.SYSFS_DEVICE);
+        try {
+            // The tty belongs to a USB interface, the ids are kept by the USB device a few levels up
+            Path device = ttyDevice.toRealPath();
+            for (int level = 0; device != null && level < Constants.SYSFS_USB_DEPTH; level++, device = device.getParent()) {
+                Path vendor = device.resolve(Constants.SYSFS_ID_VENDOR);
+                Path product = device.resolve(Constants.SYSFS_ID_PRODUCT);
+                if (Files.isReadable(vendor) && Files.isReadable(product)) {
+                    return Files.readString(vendor).trim() + Constants.USB_ID_SEPARATOR + Files.readString(product).trim();
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            // Not a USB device or not Linux
+        }
+        return null;
+
+    }
+
+    /**
+     * Cheap check for an unplugged port, no port is enumerated. On Linux the device node is looked up by name
+     * and the ttys in sysfs by USB id, on other systems the port can't be found without enumerating the ports.
+     * @param portName name of the port to find
+     * @param usbId vid:pid of the port to find, null to match by name only
+     * @return false if the port is surely not connected
+     */
+    public static boolean mayBeConnected(String portName, String usbId) {
+
+        if (!Platform.isLinux() || Files.exists(Paths.get(portName))) {
+            return true;
+        }
+        if (usbId == null) {
+            return false;
+        }
+        try (DirectoryStream<Path> ttys = Files.newDirectoryStream(Paths.get(Constants.SYSFS_TTY_PATH))) {
+            for (Path tty : ttys) {
+                if (usbId.equals(readUsbId(tty.getFileName().toString()))) {
+                    return true;
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            // Without sysfs the ports are enumerated
+            return true;
+        }
+        return false;
+
+    }
+
+    /**
+     * Find a port by name or by USB id
+     * @param portName name of the port to find
+     * @param usbId vid:pid of the port to find, null to match by name only
+     * @return port, null if it's not connected
+     */
+    public static CommPortIdentifier find(String portName, String usbId) {
+
+        CommPortIdentifier usbMatch = null;
+        for (CommPortIdentifier portAvailable : enumerate()) {
+            if (portAvailable.getName().equals(portName)) {
+                return portAvailable;
+            }
+            if (usbMatch == null && usbId != null && usbId.equals(readUsbId(portAvailable.getName()))) {
+                usbMatch = portAvailable;
+            }
+        }
+        return usbMatch;
+
+    }
+
+}
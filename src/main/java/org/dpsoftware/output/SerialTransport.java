@@ -0,0 +1,55 @@
+/*
+  SerialTransport.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Byte link to the microcontroller.
+ * The output path only writes Adalight frames to an output stream, the link behind it can be
+ * a real serial port or a pseudo terminal connected to the device emulator.
+ */
+public interface SerialTransport {
+
+    /**
+     * Open the link
+     * @throws IOException link can't be opened
+     */
+    void open() throws IOException;
+
+    /**
+     * Stream writing to the device
+     * @return output stream
+     * @throws IOException link is not open
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Name of the link
+     * @return port name or device path
+     */
+    String getName();
+
+    /**
+     * Close the link
+     */
+    void close();
+
+}
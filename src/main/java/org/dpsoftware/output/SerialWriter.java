@@ -0,0 +1,204 @@
+/*
+  SerialWriter.java
+
+  Copyright (C) 2020  Davide Perini
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of
+  this software and associated documentation files (the "Software"), to deal
+  in the Software without restriction, including without limitation the rights
+  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  copies of the Software, and to permit persons to whom the Software is
+  furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in
+  all copies or substantial portions of the Software.
+
+  You should have received a copy of the MIT License along with this program.
+  If not, see <https://opensource.org/licenses/MIT/>.
+*/
+package org.dpsoftware.output;
+
+import lombok.Getter;
+import org.dpsoftware.FireflyLuciferin;
+import org.dpsoftware.Watchdog;
+import org.dpsoftware.config.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write encoded frames to the serial port on a dedicated thread.
+ * The consumer never blocks on the serial port, it leaves the newest frame in a single slot
+ * and a frame not written yet is superseded by the next one, the backlog is never more than one frame.
+ * Write durations and the effective throughput are measured against the configured data rate,
+ * they tell how many frames per second the link can really carry. Statistics drop to zero while the link is idle.
+ */
+public class SerialWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerialWriter.class);
+
+    private final OutputStream output;
+    private final int dataRate;
+    private final Watchdog.Heartbeat heartbeat;
+    // Called on the writer thread when a write fails, the writer stops afterwards
+    private final Runnable onFailure;
+    // Newest frame not written yet, null when the writer is up to date
+    private byte[] pendingFrame;
+    @Getter private volatile long framesWritten;
+    // Frames superseded by a newer frame before being written
+    @Getter private volatile long framesDropped;
+    // Throughput measured over the last window
+    @Getter private volatile float bytesPerSecond;
+    @Getter private volatile float framesPerSecond;
+    @Getter private volatile float averageWriteMillis;
+    // Measurement window, confined to the writer thread
+    private long windowStart;
+    private long windowBytes;
+    private long windowFrames;
+    private long windowWriteNanos;
+
+    /**
+     * Constructor
+     * @param output serial output stream
+     * @param dataRate serial data rate in bits per second
+     * @param heartbeat watchdog heartbeat marking every write
+     * @param onFailure task run when a write fails, the device has probably been unplugged
+     */
+    public SerialWriter(OutputStream output, int dataRate, Watchdog.Heartbeat heartbeat, Runnable onFailure) {
+
+        this.output = output;
+        this.dataRate = dataRate;
+        this.heartbeat = heartbeat;
+        this.onFailure = onFailure;
+
+    }
+
+    /**
+     * Start writing on the given thread
+     * @param executorService executor owning the writer thread
+     */
+    public void start(ExecutorService executorService) {
+
+        executorService.execute(this::writeLoop);
+
+    }
+
+    /**
+     * Hand a frame to the writer, never blocks
+     * @param frame encoded frame, it must not be modified afterwards
+     */
+    public synchronized void write(byte[] frame) {
+
+        if (pendingFrame != null) {
+            framesDropped++;
+        }
+        pendingFrame = frame;
+        notifyAll();
+
+    }
+
+    /**
+     * Take the newest frame, waiting for one if the writer is up to date.
+     * A link without frames for a whole measurement window is idle, its statistics are reset.
+     * @return frame to write
+     * @throws InterruptedException writer stopped
+     */
+    synchronized byte[] takeFrame() throws InterruptedException {
+
+        long windowMillis = TimeUnit.SECONDS.toMillis(Constants.SERIAL_STATS_WINDOW);
+        boolean idle = false;
+        while (pendingFrame == null) {
+            long waitStart = System.currentTimeMillis();
+            wait(windowMillis);
+            if (pendingFrame == null && System.currentTimeMillis() - waitStart >= windowMillis) {
+                idle = true;
+                resetStats();
+            }
+        }
+        if (idle) {
+            // The first window after the idle time starts with this frame
+            windowStart = System.nanoTime();
+        }
+        byte[] frame = pendingFrame;
+        pendingFrame = null;
+        return frame;
+
+    }
+
+    /**
+     * Write frames until the thread is interrupted or the port fails
+     */
+    void writeLoop() {
+
+        windowStart = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                byte[] frame = takeFrame();
+                heartbeat.begin();
+                long writeStart = System.nanoTime();
+                try {
+                    output.write(frame);
+                } finally {
+                    heartbeat.end();
+                }
+                measure(frame.length, System.nanoTime() - writeStart);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error(Constants.SERIAL_WRITE_ERROR + e.getMessage());
+            onFailure.run();
+        }
+
+    }
+
+    /**
+     * Account a completed write
+     * @param bytes bytes written
+     * @param writeNanos write duration
+     */
+    void measure(int bytes, long writeNanos) {
+
+        framesWritten++;
+        FireflyLuciferin.FPS_CONSUMER_COUNTER++;
+        windowBytes += bytes;
+        windowFrames++;
+        windowWriteNanos += writeNanos;
+        long elapsed = System.nanoTime() - windowStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(Constants.SERIAL_STATS_WINDOW)) {
+            bytesPerSecond = windowBytes * 1e9F / elapsed;
+            framesPerSecond = windowFrames * 1e9F / elapsed;
+            averageWriteMillis = windowWriteNanos / 1e6F / windowFrames;
+            windowStart += elapsed;
+            windowBytes = windowFrames = windowWriteNanos = 0;
+        }
+
+    }
+
+    /**
+     * Forget the throughput measured, nothing is being written
+     */
+    void resetStats() {
+
+        bytesPerSecond = 0;
+        framesPerSecond = 0;
+        averageWriteMillis = 0;
+        windowBytes = windowFrames = windowWriteNanos = 0;
+
+    }
+
+    /**
+     * Share of the link capacity in use, 8N1 serial sends 10 bits for every byte
+     * @return link usage between 0 and 1
+     */
+    public float getLinkUsage() {
+
+        return dataRate > 0 ? (bytesPerSecond * 10) / dataRate : 0;
+
+    }
+
+}